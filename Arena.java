@@ -0,0 +1,575 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * A flat AST: a program's nodes stored in parallel primitive arrays,
+ * rather than as a graph of Node objects. A node is an int index into
+ * the arrays, which hold its kind, its first child, its next sibling,
+ * and a payload: a variable's or literal's symbol id, or, for a block,
+ * whether it is braced. An ID node, which has no children, keeps its
+ * position in the first-child slot, for EvalException. So each node is
+ * 13 bytes, with no object headers and no operator or literal Strings.
+ * <p>
+ * Children are linked first-child, next-sibling: a block's statements,
+ * the two operands of a binary operator, an if's condition, then-statement
+ * and else-statement. NodeStmt wrappers, NodeAddop and NodeMulop objects
+ * disappear into the kinds. Literals are decoded once, into values[],
+ * by symbol id. Statements are appended one at a time, converted from the
+ * Parser's objects, so the object tree is never built for a whole program.
+ * <p>
+ * root() adapts the arena to a Node, so it can be eval()-uated and
+ * code()-generated like the tree it replaces, with the same results.
+ * <p>
+ * An arena can be written to a file, and loaded back, memory-mapped,
+ * with no scanning or parsing. The file is: a magic number, a format
+ * version, a CRC32C of the rest, the counts (nodes, identifiers,
+ * literals), the four node arrays, the literals' values, and the
+ * identifiers' and literals' names (each an int length, then
+ * ISO-8859-1 bytes), all big-endian.
+ */
+public class Arena {
+
+	// node kinds
+	private static final byte BLOCK=0;
+	private static final byte ASSN=1;
+	private static final byte RD=2;
+	private static final byte WR=3;
+	private static final byte IF=4;
+	private static final byte WHILE=5;
+	private static final byte LT=6;
+	private static final byte LE=7;
+	private static final byte GT=8;
+	private static final byte GE=9;
+	private static final byte NE=10;
+	private static final byte EQ=11;
+	private static final byte ADD=12;
+	private static final byte SUB=13;
+	private static final byte MUL=14;
+	private static final byte DIV=15;
+	private static final byte NEG=16;
+	private static final byte PAREN=17;
+	private static final byte NUM=18;
+	private static final byte ID=19;
+
+	private static final String[] ops={
+		null,null,null,null,null,null,
+		"<","<=",">",">=","!=","==",
+		"+","-","*","/",
+	};
+	private static final double epsilon=1e-9; // as in NodeRelop
+
+	private byte[] kind=new byte[1024];
+	private int[] first=new int[1024];	// first child, or an ID's position; -1 if none
+	private int[] next=new int[1024];	// next sibling; -1 if none
+	private int[] val=new int[1024];	// symbol id, or, for a block, 1 if braced
+	private int size;
+
+	private Symbols ids=new Symbols();
+	private Symbols nums=new Symbols();
+	private double[] values=new double[16];	// literals' values, by symbol id
+
+	private int root;
+	private int last=-1;	// the root's last statement
+
+	private static final int magic=0x54413141; // "TA1A"
+	private static final int version=1;
+	private static final int header=16; // magic, version, checksum
+
+	/**
+	 * Constructs an empty program.
+	 */
+	public Arena() {
+		root=node(BLOCK,0);
+	}
+
+	private int node(byte k, int v) {
+		if (size==kind.length) {
+			int cap=Math.max(16,2*size);
+			kind=Arrays.copyOf(kind,cap);
+			first=Arrays.copyOf(first,cap);
+			next=Arrays.copyOf(next,cap);
+			val=Arrays.copyOf(val,cap);
+		}
+		kind[size]=k;
+		first[size]=-1;
+		next[size]=-1;
+		val[size]=v;
+		return size++;
+	}
+
+	private int node(byte k, int a, int b) {
+		int n=node(k,0);
+		first[n]=a;
+		next[a]=b;
+		return n;
+	}
+
+	private int node(byte k, int v, int a, int b) {
+		int n=node(k,a,b);
+		val[n]=v;
+		return n;
+	}
+
+	/**
+	 * Appends a top-level statement.
+	 * @param stmt The statement, which can then be dropped.
+	 */
+	public void add(NodeStmt stmt) {
+		int n=stmt(stmt);
+		if (last<0)
+			first[root]=n;
+		else
+			next[last]=n;
+		last=n;
+	}
+
+	/**
+	 * Parses a program one statement at a time, into a new arena.
+	 * @param parser The parser, which has been start()-ed on the program.
+	 * @return The arena.
+	 * @throws SyntaxException if the program violates the grammar rules.
+	 */
+	public static Arena parse(Parser parser) throws SyntaxException {
+		Arena arena=new Arena();
+		for (NodeStmt stmt; (stmt=parser.nextStmt())!=null; )
+			arena.add(stmt);
+		arena.trim();
+		return arena;
+	}
+
+	/**
+	 * Shrinks the arrays to the nodes in them, once no more are added.
+	 */
+	public void trim() {
+		kind=Arrays.copyOf(kind,size);
+		first=Arrays.copyOf(first,size);
+		next=Arrays.copyOf(next,size);
+		val=Arrays.copyOf(val,size);
+	}
+
+	/**
+	 * Returns the number of nodes.
+	 * @return The number of nodes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	// conversion from the Parser's objects
+
+	private int stmt(NodeStmt stmt) {
+		Node s=stmt.getStmt();
+		if (s instanceof NodeAssn)
+			return node(ASSN,ids.intern(((NodeAssn)s).getId()),expr(((NodeAssn)s).getExpr()),-1);
+		if (s instanceof NodeRd)
+			return node(RD,ids.intern(((NodeRd)s).getId()));
+		if (s instanceof NodeWr) {
+			int n=node(WR,0);
+			int e=expr(((NodeWr)s).getExpr()); // may grow the arrays
+			first[n]=e;
+			return n;
+		}
+		if (s instanceof NodeIf) {
+			NodeIf i=(NodeIf)s;
+			int c=boolexpr(i.getBoolexpr());
+			int t=stmt(i.getThenStmt());
+			next[c]=t;
+			if (i.getElseStmt()!=null) {
+				int e=stmt(i.getElseStmt());
+				next[t]=e;
+			}
+			int n=node(IF,0);
+			first[n]=c;
+			return n;
+		}
+		if (s instanceof NodeWhile) {
+			NodeWhile w=(NodeWhile)s;
+			int c=boolexpr(w.getBoolexpr());
+			int t=stmt(w.getStmt());
+			next[c]=t;
+			int n=node(WHILE,0);
+			first[n]=c;
+			return n;
+		}
+		NodeBlock b=(NodeBlock)s;
+		int n=node(BLOCK,b.pos!=0 ? 1 : 0);
+		int prev=-1;
+		for (NodeStmt t: b.getStmts()) {
+			int c=stmt(t);
+			if (prev<0)
+				first[n]=c;
+			else
+				next[prev]=c;
+			prev=c;
+		}
+		return n;
+	}
+
+	private int boolexpr(NodeBoolexpr b) {
+		byte k;
+		switch (b.getRelop().getOp()) {
+		case "<":	k=LT; break;
+		case "<=":	k=LE; break;
+		case ">":	k=GT; break;
+		case ">=":	k=GE; break;
+		case "<>":	k=NE; break;
+		default:	k=EQ;
+		}
+		int l=expr(b.getExpr1());
+		return node(k,l,expr(b.getExpr2()));
+	}
+
+	private int expr(NodeExpr e) {
+		// the chain's leftmost term is at its tail
+		java.util.ArrayDeque<NodeExpr> chain=new java.util.ArrayDeque<>();
+		for (NodeExpr n=e; n!=null; n=n.getExpr())
+			chain.push(n);
+		int l=-1;
+		for (NodeExpr n: chain) {
+			int r=term(n.getTerm());
+			l=l<0 ? r : node(n.getAddop().getOp().equals("+") ? ADD : SUB,l,r);
+		}
+		return l;
+	}
+
+	private int term(NodeTerm t) {
+		java.util.ArrayDeque<NodeTerm> chain=new java.util.ArrayDeque<>();
+		for (NodeTerm n=t; n!=null; n=n.getTerm())
+			chain.push(n);
+		int l=-1;
+		for (NodeTerm n: chain) {
+			int r=fact(n.getFact());
+			l=l<0 ? r : node(n.getMulop().getOp().equals("*") ? MUL : DIV,l,r);
+		}
+		return l;
+	}
+
+	private int fact(NodeFact f) {
+		if (f instanceof NodeFactId) {
+			int n=node(ID,ids.intern(((NodeFactId)f).getId()));
+			first[n]=f.pos;
+			return n;
+		}
+		if (f instanceof NodeFactNum) {
+			String num=((NodeFactNum)f).getNum();
+			int id=nums.intern(num);
+			if (id==values.length)
+				values=Arrays.copyOf(values,2*id);
+			values[id]=((NodeFactNum)f).getVal();
+			return node(NUM,id);
+		}
+		int n=node(f instanceof NodeFactUnary ? NEG : PAREN,0);
+		int a=f instanceof NodeFactUnary
+			? fact(((NodeFactUnary)f).getFact())
+			: expr(((NodeFactExpr)f).getExpr());
+		first[n]=a;
+		return n;
+	}
+
+	// evaluation, as by the Node classes, with variables in slots[], by symbol id
+
+	private double eval(int n, Environment env, int[] slots) throws EvalException {
+		int a=first[n];
+		switch (kind[n]) {
+		case BLOCK:
+			double ret=0.0;
+			for (int s=a; s>=0; s=next[s])
+				ret=eval(s,env,slots);
+			return ret;
+		case ASSN:
+			return env.put(slots[val[n]],eval(a,env,slots));
+		case RD:
+			double d=env.read();
+			env.put(slots[val[n]],d);
+			return d;
+		case WR:
+			d=eval(a,env,slots);
+			env.write(d);
+			return d;
+		case IF:
+			if (test(a,env,slots))
+				return eval(next[a],env,slots);
+			int e=next[next[a]];
+			return e>=0 ? eval(e,env,slots) : 0.0;
+		case WHILE:
+			while (test(a,env,slots))
+				eval(next[a],env,slots);
+			return 0.0;
+		case ADD:	return eval(a,env,slots)+eval(next[a],env,slots);
+		case SUB:	return eval(a,env,slots)-eval(next[a],env,slots);
+		case MUL:	return eval(a,env,slots)*eval(next[a],env,slots);
+		case DIV:	return eval(a,env,slots)/eval(next[a],env,slots);
+		case NEG:	return -eval(a,env,slots);
+		case PAREN:	return eval(a,env,slots);
+		case NUM:	return values[val[n]];
+		case ID:	return env.get(a,slots[val[n]]);
+		default:	return test(n,env,slots) ? 1.0 : 0.0;
+		}
+	}
+
+	private boolean test(int n, Environment env, int[] slots) throws EvalException {
+		int a=first[n];
+		double o1=eval(a,env,slots);
+		double o2=eval(next[a],env,slots);
+		switch (kind[n]) {
+		case LT:	return o1<o2;
+		case LE:	return o1<=o2;
+		case GT:	return o1>o2;
+		case GE:	return o1>=o2;
+		case NE:	return Math.abs(o1-o2)>epsilon;
+		default:	return Math.abs(o1-o2)<epsilon;
+		}
+	}
+
+	// code generation, as by the Node classes
+
+	private void code(int n, Emitter out) {
+		int a=first[n];
+		switch (kind[n]) {
+		case BLOCK:
+			if (val[n]!=0)
+				out.open();
+			for (int t=a; t>=0; t=next[t])
+				code(t,out);
+			if (val[n]!=0)
+				out.close().newline();
+			break;
+		case ASSN:
+			out.append(ids.name(val[n])).append("=");
+			code(a,out);
+			out.append(";").newline();
+			break;
+		case RD:
+			out.append("_rd(&").append(ids.name(val[n])).append(");").newline();
+			break;
+		case WR:
+			out.append("_wr((double)(");
+			code(a,out);
+			out.append("));").newline();
+			break;
+		case IF:
+			out.append("if ");
+			code(a,out);
+			out.append(" ").open();
+			code(next[a],out);
+			out.close();
+			int e=next[next[a]];
+			if (e>=0) {
+				out.append(" else ").open();
+				code(e,out);
+				out.close();
+			}
+			out.newline();
+			break;
+		case WHILE:
+			out.append("while ");
+			code(a,out);
+			out.append(" ").open();
+			code(next[a],out);
+			out.close().newline();
+			break;
+		case LT: case LE: case GT: case GE: case NE: case EQ:
+			out.append("(");
+			code(a,out);
+			out.append(ops[kind[n]]);
+			code(next[a],out);
+			out.append(")");
+			break;
+		case ADD: case SUB: case MUL: case DIV:
+			// a chain nests to the left, as deep as it is long,
+			// so walk down it, then emit its operators on the way back
+			java.util.ArrayDeque<Integer> chain=new java.util.ArrayDeque<>();
+			int l=n;
+			for (; kind[l]>=ADD && kind[l]<=DIV; l=first[l])
+				chain.push(l);
+			code(l,out);
+			while (!chain.isEmpty()) {
+				int o=chain.pop();
+				out.append(ops[kind[o]]);
+				code(next[first[o]],out);
+			}
+			break;
+		case NEG:
+			out.append("(-");
+			code(a,out);
+			out.append(")");
+			break;
+		case PAREN:
+			out.append("(");
+			code(a,out);
+			out.append(")");
+			break;
+		case NUM:
+			String num=nums.name(val[n]);
+			out.append(num);
+			if (num.indexOf('.')<0)
+				out.append(".0");
+			break;
+		default:
+			out.append(ids.name(val[n]));
+		}
+	}
+
+	// the binary format
+
+	/**
+	 * Returns the name of the file a program's arena is cached in:
+	 * a hash of its exact text, since positions are kept.
+	 * @param program The source program.
+	 * @return The file name.
+	 */
+	public static String key(String program) {
+		try {
+			MessageDigest md=MessageDigest.getInstance("SHA-256");
+			StringBuilder s=new StringBuilder();
+			for (byte b: md.digest(program.getBytes(StandardCharsets.UTF_8)))
+				s.append(String.format("%02x",b));
+			return s.append(".arena").toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static int names(Symbols syms) {
+		int n=0;
+		for (int i=0; i<syms.size(); i++)
+			n+=4+syms.name(i).length();
+		return n;
+	}
+
+	private static void putNames(ByteBuffer b, Symbols syms) {
+		for (int i=0; i<syms.size(); i++) {
+			String name=syms.name(i);
+			b.putInt(name.length());
+			b.put(name.getBytes(StandardCharsets.ISO_8859_1));
+		}
+	}
+
+	private static Symbols getNames(ByteBuffer b, int n) {
+		Symbols syms=new Symbols();
+		for (int i=0; i<n; i++) {
+			byte[] name=new byte[b.getInt()];
+			b.get(name);
+			syms.intern(new String(name,StandardCharsets.ISO_8859_1));
+		}
+		return syms;
+	}
+
+	/**
+	 * Writes the arena to a file, replacing it atomically,
+	 * so a concurrent load() sees the old file or the new one.
+	 * @param path The file.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void write(Path path) throws IOException {
+		int len=header+4*4+13*size+8*nums.size()+names(ids)+names(nums);
+		ByteBuffer b=ByteBuffer.allocate(len);
+		b.position(header);
+		b.putInt(size).putInt(root).putInt(ids.size()).putInt(nums.size());
+		b.put(kind,0,size);
+		b.asIntBuffer().put(first,0,size);
+		b.position(b.position()+4*size);
+		b.asIntBuffer().put(next,0,size);
+		b.position(b.position()+4*size);
+		b.asIntBuffer().put(val,0,size);
+		b.position(b.position()+4*size);
+		b.asDoubleBuffer().put(values,0,nums.size());
+		b.position(b.position()+8*nums.size());
+		putNames(b,ids);
+		putNames(b,nums);
+		CRC32C crc=new CRC32C();
+		crc.update(b.array(),header,len-header);
+		b.putInt(0,magic).putInt(4,version).putLong(8,crc.getValue());
+		Path dir=path.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path tmp=Files.createTempFile(dir,"prog",".arena");
+		try {
+			Files.write(tmp,b.array());
+			Files.move(tmp,path,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Loads an arena written by write(), memory-mapping the file.
+	 * @param path The file.
+	 * @return The arena, or null if the file is missing, is of another
+	 * format version, or is corrupt (its checksum does not match),
+	 * in which case the program must be re-parsed.
+	 * @throws IOException If the file exists, but cannot be read.
+	 */
+	public static Arena load(Path path) throws IOException {
+		MappedByteBuffer b;
+		try (FileChannel ch=FileChannel.open(path,StandardOpenOption.READ)) {
+			if (ch.size()<header+4*4)
+				return null;
+			b=ch.map(FileChannel.MapMode.READ_ONLY,0,ch.size());
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		if (b.getInt(0)!=magic || b.getInt(4)!=version)
+			return null;
+		CRC32C crc=new CRC32C();
+		crc.update(b.slice(header,b.limit()-header));
+		if (b.getLong(8)!=crc.getValue())
+			return null;
+		try {
+			b.position(header);
+			Arena a=new Arena();
+			a.size=b.getInt();
+			a.root=b.getInt();
+			int nids=b.getInt();
+			int nnums=b.getInt();
+			a.kind=new byte[a.size];
+			a.first=new int[a.size];
+			a.next=new int[a.size];
+			a.val=new int[a.size];
+			a.values=new double[nnums];
+			b.get(a.kind);
+			b.asIntBuffer().get(a.first);
+			b.position(b.position()+4*a.size);
+			b.asIntBuffer().get(a.next);
+			b.position(b.position()+4*a.size);
+			b.asIntBuffer().get(a.val);
+			b.position(b.position()+4*a.size);
+			b.asDoubleBuffer().get(a.values);
+			b.position(b.position()+8*nnums);
+			a.ids=getNames(b,nids);
+			a.nums=getNames(b,nnums);
+			for (int s=a.first[a.root]; s>=0; s=a.next[s])
+				a.last=s;
+			return a;
+		} catch (RuntimeException e) { // e.g., a count past the end
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the program as a Node, whose eval() and code() run the
+	 * arena's, so it can stand in for the tree's root NodeBlock.
+	 * @return The adapter.
+	 */
+	public Node root() {
+		return new Node() {
+			public double eval(Environment env) throws EvalException {
+				int[] slots=new int[ids.size()];
+				for (int id=0; id<slots.length; id++)
+					slots[id]=env.slot(ids.name(id));
+				return Arena.this.eval(root,env,slots);
+			}
+			public void code(Emitter out) {
+				Arena.this.code(root,out);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,143 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs the same programs over many independent inputs in parallel.
+ * The programs are parsed once, and their ASTs are shared, read-only,
+ * by a pool of threads. Each run gets its own Environment, with its
+ * own input and output, so runs cannot see each other.
+ */
+public class Batch {
+
+	private List<NodeBlock> progs;
+
+	/**
+	 * The output of one run.
+	 */
+	public static class Result {
+		private String out;
+		private String err;
+		Result(String out, String err) {
+			this.out=out;
+			this.err=err;
+		}
+		/**
+		 * Returns what the run printed with 'wr'.
+		 * @return The standard output.
+		 */
+		public String out() { return out; }
+		/**
+		 * Returns the errors the run reported, one per line.
+		 * @return The error output.
+		 */
+		public String err() { return err; }
+	}
+
+	/**
+	 * Constructs a batch from already-parsed programs.
+	 * @param progs The programs, run in order against one environment per input.
+	 */
+	public Batch(List<NodeBlock> progs) {
+		this.progs=progs;
+	}
+
+	/**
+	 * Runs the programs on one input, as Main runs them on stdin.
+	 * @param in The input for 'rd'.
+	 * @return What the run printed.
+	 */
+	public Result run(InputStream in) {
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		ByteArrayOutputStream err=new ByteArrayOutputStream();
+		PrintStream outs=new PrintStream(out,false,StandardCharsets.UTF_8);
+		PrintStream errs=new PrintStream(err,false,StandardCharsets.UTF_8);
+		Environment env=new Environment(in,outs);
+		for (NodeBlock prog: progs)
+			try {
+				prog.eval(env);
+			} catch (Exception e) {
+				errs.println(e);
+			}
+		outs.flush();
+		errs.flush();
+		return new Result(out.toString(StandardCharsets.UTF_8),err.toString(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Runs the programs on each input file, on a pool of threads.
+	 * @param inputs The input files.
+	 * @param pool The threads to run on.
+	 * @return The results, in the same order as the inputs.
+	 */
+	public List<Future<Result>> run(List<Path> inputs, ExecutorService pool) {
+		List<Future<Result>> results=new ArrayList<>();
+		for (Path input: inputs)
+			results.add(pool.submit(() -> {
+				try (InputStream in=new BufferedInputStream(Files.newInputStream(input))) {
+					return run(in);
+				}
+			}));
+		return results;
+	}
+
+	/**
+	 * The batch mode of Main: parses the programs once, then runs them on
+	 * each input file named on stdin (one per line). Each input's output is
+	 * written to stdout, and its errors to stderr, in the order the inputs
+	 * were named, each preceded by a "==> name <==" line.
+	 * The "Threads" environment variable sets the pool size,
+	 * which defaults to the number of processors. The threads get the
+	 * same deep stack as Main's, since the walkers recurse on the tree.
+	 * @param args The source programs.
+	 */
+	public static void main(String[] args) {
+		Parser parser=new Parser();
+		List<NodeBlock> progs=new ArrayList<>();
+		for (String prog: args)
+			try {
+				progs.add((NodeBlock)parser.parse(prog));
+			} catch (SyntaxException e) {
+				System.err.println(e);
+			}
+		List<Path> inputs=new ArrayList<>();
+		try {
+			BufferedReader names=new BufferedReader(new InputStreamReader(System.in));
+			for (String name; (name=names.readLine())!=null; )
+				if (!name.isBlank())
+					inputs.add(Paths.get(name.strip()));
+		} catch (IOException e) {
+			System.err.println(e);
+			return;
+		}
+		String n=System.getenv("Threads");
+		int threads=n!=null ? Integer.parseInt(n) : Runtime.getRuntime().availableProcessors();
+		ExecutorService pool=Executors.newFixedThreadPool(threads,Main::thread);
+		try {
+			List<Future<Result>> results=new Batch(progs).run(inputs,pool);
+			for (int i=0; i<inputs.size(); i++) {
+				String header="==> "+inputs.get(i)+" <==";
+				System.out.println(header);
+				try {
+					Result r=results.get(i).get();
+					System.out.print(r.out());
+					if (!r.err().isEmpty()) {
+						System.err.println(header);
+						System.err.print(r.err());
+					}
+				} catch (ExecutionException e) {
+					System.err.println(header);
+					System.err.println(e.getCause());
+				}
+				results.set(i,null); // let its output be collected
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,314 @@
+import java.util.Random;
+
+/**
+ * Micro-benchmarks for the front end, run on large generated programs:
+ * "java Bench scan [statements]" times the Scanner,
+ * "java Bench parse [statements]" times the Parser, and
+ * "java Bench scale" checks that parsing takes linear time,
+ * in the length of a block and of an expression, and
+ * "java Bench memory [statements]" measures the heap a parsed program
+ * takes, per statement, as a tree of Nodes and as an Arena, and
+ * "java Bench load [statements]" compares parsing a program into an
+ * Arena with loading the Arena from its binary file, and
+ * "java Bench eval [iterations]" times the tree-walker, eval(), on a loop
+ * of arithmetic and comparisons, the operators' dispatch being most of its work,
+ * and "java Bench generic [iterations]" times it on the same loop, with
+ * operators that compare their text on every evaluation, as the baseline.
+ * Each benchmark is repeated, so the JIT has warmed up by the last
+ * rounds, and the best round is reported.
+ */
+public class Bench {
+
+	private static final int rounds=10;
+
+	/**
+	 * Generates a program of assignments, conditionals, and loops,
+	 * with comments, the same for the same size.
+	 * @param stmts The number of statements.
+	 * @return The program text.
+	 */
+	static String program(int stmts) {
+		Random r=new Random(stmts);
+		StringBuilder s=new StringBuilder();
+		for (int i=0; i<stmts; i++) {
+			String v="v"+r.nextInt(100);
+			switch (r.nextInt(4)) {
+			case 0:
+				s.append(v).append(" = ").append(v).append(" * 3.25 + (x1 - 42) / y;\n");
+				break;
+			case 1:
+				s.append("if ").append(v).append(" <= 1000 then ").append(v).append(" = ")
+					.append(v).append(" + 1 else wr -").append(v).append(";\n");
+				break;
+			case 2:
+				s.append("while ").append(v).append(" <> 0 do begin ").append(v).append(" = ")
+					.append(v).append(" - 1; rd x1 end;\n");
+				break;
+			default:
+				s.append("// counter ").append(i).append('\n');
+				s.append(v).append(" = 12345;\n");
+			}
+		}
+		s.append("wr 0\n");
+		return s.toString();
+	}
+
+	private static long scan(String prog) {
+		long n=0;
+		TokenBuffer tokens=new TokenBuffer();
+		Scanner scanner=new Scanner(prog);
+		while (scanner.next(tokens)!=Token.EOF)
+			if (tokens.size()==4096) { // drain, as Parser.nextStmt() does
+				n+=tokens.size();
+				tokens.compact(tokens.size());
+			}
+		return n+tokens.size()-1;
+	}
+
+	/**
+	 * Generates a program of one assignment, whose expression is a
+	 * chain of terms, each a chain of facts.
+	 * @param terms The number of terms.
+	 * @return The program text.
+	 */
+	static String expression(int terms) {
+		StringBuilder s=new StringBuilder("x = 1");
+		for (int i=1; i<terms; i++)
+			s.append(i%2==0 ? " + " : " - ").append(i%7).append(i%3==0 ? " * y / 2" : "");
+		return s.append('\n').toString();
+	}
+
+	/**
+	 * Generates a program of one loop, whose body uses every operator
+	 * and every relop.
+	 * @param iterations The number of iterations.
+	 * @return The program text.
+	 */
+	static String loop(int iterations) {
+		return "i = 0; s = 0; n = 0;\n"
+			+"while i < "+iterations+" do begin\n"
+			+"  if s >= 1000 then s = s - 1000 else s = s + i * 3 / 4;\n"
+			+"  if i - i / 2 * 2 == 0 then n = n + 1;\n"
+			+"  if s <> n then if s <= n then n = n - 1 else if s > 0 then n = n + 1;\n"
+			+"  i = i + 1\n"
+			+"end\n";
+	}
+
+	private static Node parse(String prog) {
+		try {
+			return new Parser().parse(prog);
+		} catch (SyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Copies a program, with each operator replaced by its generic node,
+	 * e.g., NodeAddop.generic(), rather than the one of() chose.
+	 */
+	private static Node generic(Node n) {
+		if (n instanceof NodeBlock) {
+			NodeBlock block=new NodeBlock();
+			for (NodeStmt s: ((NodeBlock)n).getStmts())
+				block.addStmt((NodeStmt)generic(s));
+			return block;
+		}
+		if (n instanceof NodeStmt) {
+			Node s=generic(((NodeStmt)n).getStmt());
+			if (s instanceof NodeAssn)
+				return new NodeStmt((NodeAssn)s);
+			if (s instanceof NodeRd)
+				return new NodeStmt((NodeRd)s);
+			if (s instanceof NodeWr)
+				return new NodeStmt((NodeWr)s);
+			if (s instanceof NodeIf)
+				return new NodeStmt((NodeIf)s);
+			if (s instanceof NodeWhile)
+				return new NodeStmt((NodeWhile)s);
+			return new NodeStmt((NodeBlock)s);
+		}
+		if (n instanceof NodeAssn)
+			return new NodeAssn(((NodeAssn)n).getId(),(NodeExpr)generic(((NodeAssn)n).getExpr()));
+		if (n instanceof NodeWr)
+			return new NodeWr((NodeExpr)generic(((NodeWr)n).getExpr()));
+		if (n instanceof NodeIf) {
+			NodeIf i=(NodeIf)n;
+			return new NodeIf((NodeBoolexpr)generic(i.getBoolexpr()),(NodeStmt)generic(i.getThenStmt()),
+				i.getElseStmt()==null ? null : (NodeStmt)generic(i.getElseStmt()));
+		}
+		if (n instanceof NodeWhile) {
+			NodeWhile w=(NodeWhile)n;
+			return new NodeWhile((NodeBoolexpr)generic(w.getBoolexpr()),(NodeStmt)generic(w.getStmt()));
+		}
+		if (n instanceof NodeBoolexpr) {
+			NodeBoolexpr b=(NodeBoolexpr)n;
+			return new NodeBoolexpr((NodeExpr)generic(b.getExpr1()),
+				NodeRelop.generic(b.getRelop().pos,b.getRelop().getOp()),(NodeExpr)generic(b.getExpr2()));
+		}
+		if (n instanceof NodeExpr) {
+			NodeExpr e=(NodeExpr)n;
+			return e.getAddop()==null
+				? new NodeExpr((NodeTerm)generic(e.getTerm()),null,null)
+				: new NodeExpr((NodeTerm)generic(e.getTerm()),
+					NodeAddop.generic(e.getAddop().pos,e.getAddop().getOp()),(NodeExpr)generic(e.getExpr()));
+		}
+		if (n instanceof NodeTerm) {
+			NodeTerm t=(NodeTerm)n;
+			return t.getMulop()==null
+				? new NodeTerm((NodeFact)generic(t.getFact()),null,null)
+				: new NodeTerm((NodeFact)generic(t.getFact()),
+					NodeMulop.generic(t.getMulop().pos,t.getMulop().getOp()),(NodeTerm)generic(t.getTerm()));
+		}
+		if (n instanceof NodeFactExpr)
+			return new NodeFactExpr((NodeExpr)generic(((NodeFactExpr)n).getExpr()));
+		if (n instanceof NodeFactUnary)
+			return new NodeFactUnary(n.pos,(NodeFact)generic(((NodeFactUnary)n).getFact()));
+		return n; // rd, a number, or a variable
+	}
+
+	private static Arena arena(String prog) {
+		Parser parser=new Parser();
+		parser.start(Source.of(prog));
+		try {
+			return Arena.parse(parser);
+		} catch (SyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Times a task, repeatedly.
+	 * @return The best time, in ns.
+	 */
+	private static long time(int rounds, Runnable task) {
+		long best=Long.MAX_VALUE;
+		for (int i=0; i<rounds; i++) {
+			long t0=System.nanoTime();
+			task.run();
+			best=Math.min(best,System.nanoTime()-t0);
+		}
+		return best;
+	}
+
+	/**
+	 * Parses programs of growing size, and fails unless the time per
+	 * statement (or term) stays flat: at 8x the size, under 2x the time
+	 * per item, which a quadratic parser cannot meet.
+	 * @return true if parsing scaled linearly.
+	 */
+	private static boolean scale() {
+		boolean ok=true;
+		for (String kind: new String[] {"stmts","terms"}) {
+			double first=0;
+			double last=0;
+			for (int n=kind.equals("stmts") ? 125000 : 12500, i=0; i<4; n*=2, i++) {
+				String prog=kind.equals("stmts") ? program(n) : expression(n);
+				long t=time(3,() -> parse(prog));
+				double per=(double)t/n;
+				System.out.printf("scale: %8d %s, %7.1f ms, %6.1f ns/item%n",n,kind,t/1e6,per);
+				if (i==0)
+					first=per;
+				last=per;
+			}
+			if (last>2*first) {
+				System.out.println("scale: "+kind+" FAILED: not linear");
+				ok=false;
+			}
+		}
+		return ok;
+	}
+
+	private static long used() {
+		Runtime rt=Runtime.getRuntime();
+		for (int i=0; i<4; i++)
+			System.gc();
+		return rt.totalMemory()-rt.freeMemory();
+	}
+
+	/**
+	 * Measures the heap a program takes, once parsed, as the growth in
+	 * used memory, after a GC, while it is held.
+	 * @return The bytes.
+	 */
+	private static long footprint(String prog, boolean arena) {
+		long before=used();
+		Object held=arena ? arena(prog) : parse(prog);
+		long after=used();
+		if (held.hashCode()==0) // keep it reachable
+			System.out.print("");
+		return after-before;
+	}
+
+	/**
+	 * The main method.
+	 * @param args The benchmark's name, and optionally the program size, in statements.
+	 */
+	public static void main(String[] args) {
+		String name=args.length>0 ? args[0] : "scan";
+		int stmts=args.length>1 ? Integer.parseInt(args[1]) : 200000;
+		String prog=program(stmts);
+		switch (name) {
+		case "scan":
+			long[] tokens=new long[1];
+			long t=time(rounds,() -> tokens[0]=scan(prog));
+			System.out.printf("scan: %d chars, %d tokens, %.1f ms, %.1f Mtokens/s%n",
+				prog.length(),tokens[0],t/1e6,tokens[0]*1e3/t);
+			break;
+		case "parse":
+			t=time(rounds,() -> parse(prog));
+			System.out.printf("parse: %d statements, %.1f ms, %.1f Mstatements/s%n",
+				stmts,t/1e6,stmts*1e3/t);
+			break;
+		case "memory":
+			long tree=footprint(prog,false);
+			long flat=footprint(prog,true);
+			System.out.printf("memory: %d statements, tree %.1f bytes/statement,"
+					+" arena %.1f bytes/statement%n",
+				stmts,(double)tree/stmts,(double)flat/stmts);
+			break;
+		case "load":
+			try {
+				java.nio.file.Path file=java.nio.file.Files.createTempFile("bench",".arena");
+				try {
+					arena(prog).write(file);
+					long parse=time(rounds,() -> arena(prog));
+					long load=time(rounds,() -> {
+						try {
+							Arena.load(file);
+						} catch (java.io.IOException e) {
+							throw new java.io.UncheckedIOException(e);
+						}
+					});
+					System.out.printf("load: %d statements, %d bytes, parse %.1f ms, load %.1f ms%n",
+						stmts,java.nio.file.Files.size(file),parse/1e6,load/1e6);
+				} finally {
+					java.nio.file.Files.delete(file);
+				}
+			} catch (java.io.IOException e) {
+				System.err.println(e);
+			}
+			break;
+		case "eval":
+		case "generic":
+			int iterations=args.length>1 ? Integer.parseInt(args[1]) : 1000000;
+			Node node=name.equals("eval") ? parse(loop(iterations)) : generic(parse(loop(iterations)));
+			t=time(rounds,() -> {
+				try {
+					node.eval(new Environment());
+				} catch (EvalException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			System.out.printf("%s: %d iterations, %.1f ms, %.1f ns/iteration%n",
+				name,iterations,t/1e6,(double)t/iterations);
+			break;
+		case "scale":
+			if (!scale())
+				System.exit(1);
+			break;
+		default:
+			System.err.println("unknown benchmark: "+name);
+		}
+	}
+
+}
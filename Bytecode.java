@@ -0,0 +1,317 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * A tiny JVM class-file assembler, just big enough for Jit.
+ * It builds the constant pool and the code of one static method,
+ * then packages them as a class file.
+ * The class file is version 49, so no StackMapTable is needed,
+ * and the method is checked by the type-inferencing verifier.
+ */
+public class Bytecode {
+
+	// opcodes used by Jit
+	public static final int ICONST_0=0x03, ICONST_1=0x04, DCONST_0=0x0e, SIPUSH=0x11;
+	public static final int LDC_W=0x13, LDC2_W=0x14;
+	public static final int ILOAD=0x15, DLOAD=0x18, ALOAD=0x19;
+	public static final int ISTORE=0x36, DSTORE=0x39, ASTORE=0x3a;
+	public static final int POP2=0x58;
+	public static final int DADD=0x63, DSUB=0x67, DMUL=0x6b, DDIV=0x6f, DNEG=0x77;
+	public static final int DCMPL=0x97, DCMPG=0x98;
+	public static final int IFEQ=0x99, IFNE=0x9a, IFLT=0x9b, IFGE=0x9c, IFGT=0x9d, IFLE=0x9e;
+	public static final int GOTO=0xa7, RETURN=0xb1, ATHROW=0xbf;
+	public static final int INVOKEVIRTUAL=0xb6, INVOKESTATIC=0xb8;
+
+	/**
+	 * A branch target, which may be bound after branches to it are emitted.
+	 */
+	public static class Label {
+		private int pos=-1;
+		private List<Integer> refs=new ArrayList<>();
+	}
+
+	private ByteArrayOutputStream poolBytes=new ByteArrayOutputStream();
+	private DataOutputStream pool=new DataOutputStream(poolBytes);
+	private Map<String,Integer> poolIndex=new HashMap<>();
+	private int poolCount=1;
+
+	private byte[] code=new byte[256];
+	private int len=0;
+	private int stack=0;
+	private int maxStack=0;
+	private int maxLocals=0;
+	private int[] handler=null; // start, end, handler
+	private List<Label> labels=new ArrayList<>();
+
+	// constant pool
+
+	private int constant(String key, int slots, DataWriter w) {
+		Integer i=poolIndex.get(key);
+		if (i!=null)
+			return i;
+		try {
+			w.write(pool);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		int index=poolCount;
+		poolCount+=slots;
+		poolIndex.put(key,index);
+		return index;
+	}
+
+	private interface DataWriter {
+		void write(DataOutputStream d) throws IOException;
+	}
+
+	private int utf8(String s) {
+		return constant("U"+s,1,d -> { d.writeByte(1); d.writeUTF(s); });
+	}
+
+	private int classRef(String name) {
+		int n=utf8(name);
+		return constant("C"+name,1,d -> { d.writeByte(7); d.writeShort(n); });
+	}
+
+	private int string(String s) {
+		int n=utf8(s);
+		return constant("S"+s,1,d -> { d.writeByte(8); d.writeShort(n); });
+	}
+
+	private int intConst(int v) {
+		return constant("I"+v,1,d -> { d.writeByte(3); d.writeInt(v); });
+	}
+
+	private int doubleConst(double v) {
+		long bits=Double.doubleToRawLongBits(v);
+		return constant("D"+bits,2,d -> { d.writeByte(6); d.writeLong(bits); });
+	}
+
+	private int methodRef(String owner, String name, String desc) {
+		int c=classRef(owner);
+		int n=utf8(name);
+		int t=utf8(desc);
+		int nt=constant("N"+name+desc,1,d -> { d.writeByte(12); d.writeShort(n); d.writeShort(t); });
+		return constant("M"+owner+"."+name+desc,1,d -> { d.writeByte(10); d.writeShort(c); d.writeShort(nt); });
+	}
+
+	// code emission
+
+	private void u1(int b) {
+		if (len==code.length)
+			code=Arrays.copyOf(code,len*2);
+		code[len++]=(byte)b;
+	}
+
+	private void u2(int s) {
+		u1(s>>8);
+		u1(s);
+	}
+
+	private void adjust(int delta) {
+		stack+=delta;
+		maxStack=Math.max(maxStack,stack);
+	}
+
+	/**
+	 * Emits an instruction without operands.
+	 * @param opcode The opcode.
+	 * @param delta The change in operand-stack depth, in slots.
+	 */
+	public void op(int opcode, int delta) {
+		u1(opcode);
+		adjust(delta);
+	}
+
+	/**
+	 * Emits a load or store of a local variable.
+	 * @param opcode One of the xLOAD/xSTORE opcodes.
+	 * @param slot The local-variable slot.
+	 * @param delta The change in operand-stack depth, in slots.
+	 */
+	public void local(int opcode, int slot, int delta) {
+		if (slot>255) {
+			u1(0xc4); // wide
+			u1(opcode);
+			u2(slot);
+		} else {
+			u1(opcode);
+			u1(slot);
+		}
+		adjust(delta);
+		int size=(opcode==DLOAD||opcode==DSTORE) ? 2 : 1;
+		maxLocals=Math.max(maxLocals,slot+size);
+	}
+
+	/**
+	 * Reserves local slots that are not otherwise touched by local().
+	 * @param n The number of slots the method needs at least.
+	 */
+	public void locals(int n) {
+		maxLocals=Math.max(maxLocals,n);
+	}
+
+	/**
+	 * Pushes an int constant.
+	 * @param v The value.
+	 */
+	public void pushInt(int v) {
+		if (v==(short)v) {
+			u1(SIPUSH);
+			u2(v);
+		} else {
+			u1(LDC_W);
+			u2(intConst(v));
+		}
+		adjust(1);
+	}
+
+	/**
+	 * Pushes a double constant.
+	 * @param v The value.
+	 */
+	public void pushDouble(double v) {
+		u1(LDC2_W);
+		u2(doubleConst(v));
+		adjust(2);
+	}
+
+	/**
+	 * Pushes a String constant.
+	 * @param s The value.
+	 */
+	public void pushString(String s) {
+		u1(LDC_W);
+		u2(string(s));
+		adjust(1);
+	}
+
+	/**
+	 * Emits a method call.
+	 * @param opcode INVOKESTATIC or INVOKEVIRTUAL.
+	 * @param owner The internal name of the owning class.
+	 * @param name The method name.
+	 * @param desc The method descriptor.
+	 * @param delta The change in operand-stack depth, in slots.
+	 */
+	public void invoke(int opcode, String owner, String name, String desc, int delta) {
+		u1(opcode);
+		u2(methodRef(owner,name,desc));
+		adjust(delta);
+	}
+
+	/**
+	 * Creates a new, unbound label.
+	 * @return The label.
+	 */
+	public Label label() {
+		Label l=new Label();
+		labels.add(l);
+		return l;
+	}
+
+	/**
+	 * Emits a conditional or unconditional branch.
+	 * @param opcode One of the IFxx opcodes, or GOTO.
+	 * @param target Where to branch.
+	 */
+	public void branch(int opcode, Label target) {
+		target.refs.add(len);
+		u1(opcode);
+		u2(0);
+		if (opcode!=GOTO)
+			adjust(-1);
+	}
+
+	/**
+	 * Binds a label to the current code position.
+	 * @param label The label to bind.
+	 */
+	public void bind(Label label) {
+		label.pos=len;
+	}
+
+	/**
+	 * Marks [start,end) as covered by a catch-all handler at handler.
+	 * The operand stack at the handler holds the thrown exception.
+	 * An empty range, which the JVM rejects, covers nothing and is dropped;
+	 * the handler's code is then unreachable.
+	 */
+	public void handler(Label start, Label end, Label handler) {
+		if (start.pos<end.pos)
+			this.handler=new int[]{ start.pos, end.pos, handler.pos };
+		stack=1;
+		maxStack=Math.max(maxStack,stack);
+	}
+
+	private void patch(Label label) {
+		if (label.pos<0)
+			throw new IllegalStateException("unbound label");
+		for (int at: label.refs) {
+			int off=label.pos-at;
+			if (off!=(short)off)
+				throw new IllegalStateException("branch too far");
+			code[at+1]=(byte)(off>>8);
+			code[at+2]=(byte)off;
+		}
+	}
+
+	/**
+	 * Packages the emitted code as a class with a single public static method.
+	 * @param className The internal name of the class.
+	 * @param method The method name.
+	 * @param desc The method descriptor.
+	 * @return The class-file bytes.
+	 * @throws IllegalStateException If the method exceeds JVM limits.
+	 */
+	public byte[] toClass(String className, String method, String desc) {
+		if (len>65535)
+			throw new IllegalStateException("method too large");
+		for (Label l: labels)
+			patch(l);
+		int thisClass=classRef(className);
+		int superClass=classRef("java/lang/Object");
+		int name=utf8(method);
+		int type=utf8(desc);
+		int codeAttr=utf8("Code");
+		try {
+			ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+			DataOutputStream out=new DataOutputStream(bytes);
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(49);
+			out.writeShort(poolCount);
+			out.write(poolBytes.toByteArray());
+			out.writeShort(0x0031); // public final super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(1); // methods
+			out.writeShort(0x0009); // public static
+			out.writeShort(name);
+			out.writeShort(type);
+			out.writeShort(1); // attributes
+			out.writeShort(codeAttr);
+			int handlers=handler==null ? 0 : 1;
+			out.writeInt(12+len+8*handlers);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(len);
+			out.write(code,0,len);
+			out.writeShort(handlers);
+			if (handler!=null) {
+				out.writeShort(handler[0]);
+				out.writeShort(handler[1]);
+				out.writeShort(handler[2]);
+				out.writeShort(0); // any
+			}
+			out.writeShort(0); // code attributes
+			out.writeShort(0); // class attributes
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * A drop-in replacement for "java Main", that has a running Server
+ * do the work: "java Client prog..." sends the programs and stdin to
+ * the server named by the "Socket" environment variable, and copies
+ * the server's stdout and stderr to its own. The "Exec" and "Code"
+ * environment variables are passed along, so the server runs the
+ * programs the same way, and writes the C to the same file.
+ * If the session ends without the server's end frame, e.g., because
+ * it failed, the Client exits with status 1.
+ */
+public class Client {
+
+	/**
+	 * The main method.
+	 * @param args An array of strings, where each string is a source program.
+	 * @throws IOException If the server cannot be reached.
+	 */
+	public static void main(String[] args) throws IOException {
+		try (SocketChannel ch=SocketChannel.open(StandardProtocolFamily.UNIX)) {
+			ch.connect(UnixDomainSocketAddress.of(Server.socket()));
+			ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+			DataOutputStream req=new DataOutputStream(bytes);
+			String exec=System.getenv("Exec");
+			String fn=System.getenv("Code");
+			req.writeUTF(exec!=null ? exec : "");
+			req.writeUTF(fn!=null ? Paths.get(fn).toAbsolutePath().toString() : "");
+			req.writeInt(args.length);
+			for (String prog: args) {
+				byte[] b=prog.getBytes(StandardCharsets.UTF_8);
+				req.writeInt(b.length);
+				req.write(b);
+			}
+			write(ch,bytes.toByteArray(),bytes.size());
+			Thread stdin=new Thread(() -> {
+				byte[] b=new byte[8192];
+				try {
+					for (int n; (n=System.in.read(b))>0; )
+						write(ch,b,n);
+					ch.shutdownOutput();
+				} catch (IOException e) {
+					// the server is done with stdin
+				}
+			});
+			stdin.setDaemon(true);
+			stdin.start();
+			DataInputStream res=new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch)));
+			int tag;
+			while ((tag=res.read())>0) {
+				byte[] b=res.readNBytes(res.readInt());
+				(tag==Server.OUT ? System.out : System.err).write(b);
+			}
+			System.out.flush();
+			System.err.flush();
+			if (tag!=Server.END)
+				System.exit(1); // the session failed
+		}
+	}
+
+	private static void write(SocketChannel ch, byte[] b, int n) throws IOException {
+		ByteBuffer buf=ByteBuffer.wrap(b,0,n);
+		while (buf.hasRemaining())
+			ch.write(buf);
+	}
+
+}
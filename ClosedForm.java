@@ -0,0 +1,132 @@
+import java.util.*;
+
+/**
+ * The loop summarization pass: rewrites counting loops, whose body
+ * only adds literals to variables (e.g., "y = y + 2; x = x - 1"),
+ * and whose condition compares one of those variables to an
+ * expression of the others (e.g., "x > 0", or "i < n"), into
+ * NodeWhileSum, which eval() and code() run in closed form, when
+ * the values at the loop allow it. Loops reading or writing (rd, wr),
+ * branching, or nesting loops are left alone.
+ * <p>
+ * Like Fuse, rewritten statements are new nodes, and their ancestors
+ * are copied, so the input tree is unchanged. Main's pipeline runs this
+ * after Ssa, since Ssa rebuilds loops as NodeWhile, and Native's after
+ * parsing (see Passes).
+ */
+public class ClosedForm {
+
+	private static final long exact=1L<<53;
+
+	/**
+	 * Summarizes a program's counting loops.
+	 * @param n The root of the program's AST.
+	 * @param passes The pass manager, whose analyses are used.
+	 * @return The root of the rewritten AST.
+	 */
+	public static Node optimize(Node n, Passes passes) {
+		return n instanceof NodeBlock ? block((NodeBlock)n,passes) : n;
+	}
+
+	private static NodeBlock block(NodeBlock b, Passes passes) {
+		NodeBlock block=new NodeBlock();
+		block.pos=b.pos;
+		for (NodeStmt s: b.getStmts())
+			block.addStmt(stmt(s,passes));
+		return block;
+	}
+
+	private static NodeStmt stmt(NodeStmt s, Passes passes) {
+		Node n=s.getStmt();
+		NodeStmt stmt;
+		if (n instanceof NodeIf) {
+			NodeIf i=(NodeIf)n;
+			NodeIf ifStmt=new NodeIf(i.getBoolexpr(),stmt(i.getThenStmt(),passes),
+				i.getElseStmt()==null ? null : stmt(i.getElseStmt(),passes));
+			ifStmt.pos=i.pos;
+			stmt=new NodeStmt(ifStmt);
+		} else if (n instanceof NodeWhile) {
+			NodeWhile w=(NodeWhile)n;
+			NodeWhile whileStmt=summarize(w,passes);
+			if (whileStmt==null)
+				whileStmt=new NodeWhile(w.getBoolexpr(),stmt(w.getStmt(),passes));
+			whileStmt.pos=w.pos;
+			stmt=new NodeStmt(whileStmt);
+		} else if (n instanceof NodeBlock)
+			stmt=new NodeStmt(block((NodeBlock)n,passes));
+		else
+			return s; // assignments, rd, wr
+		stmt.pos=s.pos;
+		return stmt;
+	}
+
+	/**
+	 * Summarizes a loop, if it is a counting loop.
+	 * @return The summarized loop, or null.
+	 */
+	private static NodeWhileSum summarize(NodeWhile w, Passes passes) {
+		Map<String,long[]> steps=new LinkedHashMap<>(); // var -> { step, span }
+		if (!body(w.getStmt(),steps))
+			return null;
+		NodeBoolexpr cond=w.getBoolexpr();
+		if (!Arrays.asList(NodeWhileSum.relops).contains(cond.getRelop().getOp()))
+			return null; // "==" runs once, or forever
+		for (boolean left: new boolean[]{ true, false }) {
+			String var=var(left ? cond.getExpr1() : cond.getExpr2());
+			Set<String> reads=passes.uses(left ? cond.getExpr2() : cond.getExpr1());
+			if (var==null || !steps.containsKey(var) || !Collections.disjoint(reads,passes.defs(w.getStmt())))
+				continue;
+			String[] vars=steps.keySet().toArray(new String[0]);
+			long[] step=new long[vars.length];
+			long[] span=new long[vars.length];
+			for (int i=0; i<vars.length; i++) {
+				step[i]=steps.get(vars[i])[0];
+				span[i]=steps.get(vars[i])[1];
+			}
+			return new NodeWhileSum(cond,w.getStmt(),left,vars,step,span);
+		}
+		return null;
+	}
+
+	/**
+	 * Adds up what a loop body adds to each variable.
+	 * @param n A statement of the body.
+	 * @param steps The step and span so far of each variable.
+	 * @return false if the body does anything else.
+	 */
+	private static boolean body(Node n, Map<String,long[]> steps) {
+		if (n instanceof NodeStmt)
+			return body(((NodeStmt)n).getStmt(),steps);
+		if (n instanceof NodeBlock) {
+			for (NodeStmt s: ((NodeBlock)n).getStmts())
+				if (!body(s,steps))
+					return false;
+			return true;
+		}
+		if (!(n instanceof NodeAssn) || n instanceof NodeDecl)
+			return false;
+		NodeAssn a=(NodeAssn)n;
+		NodeExpr e=a.getExpr();
+		if (e.getExpr()==null || e.getExpr().getExpr()!=null || !a.getId().equals(var(e.getExpr()))
+				|| e.getTerm().getTerm()!=null || !(e.getTerm().getFact() instanceof NodeFactNum))
+			return false;
+		double c=((NodeFactNum)e.getTerm().getFact()).getVal();
+		if (!(c<=exact) || c!=Math.rint(c))
+			return false;
+		long[] step=steps.computeIfAbsent(a.getId(),k -> new long[2]);
+		step[0]+=e.getAddop().getOp().equals("+") ? (long)c : -(long)c;
+		step[1]+=(long)c;
+		return step[1]<=exact;
+	}
+
+	/**
+	 * Returns an expression's variable, if it is only that.
+	 * @return The variable, or null.
+	 */
+	private static String var(NodeExpr e) {
+		return e.getExpr()==null && e.getTerm().getTerm()==null
+			&& e.getTerm().getFact() instanceof NodeFactId
+			? ((NodeFactId)e.getTerm().getFact()).getId() : null;
+	}
+
+}
@@ -1,45 +1,255 @@
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 
 /**
  * Manages the generation of the output C code file.
  * It writes a standard C prologue, the translated code from the AST,
  * variable declarations from the environment, and a standard epilogue.
  * The output file name is determined by the "Code" environment variable.
+ * The C is streamed into the file, through a buffered writer on a
+ * FileChannel, indented as it goes (see Emitter).
+ * <p>
+ * The prologue includes the C's runtime: _wr() formats as printf("%g\n")
+ * would, byte for byte, into a 64 KiB buffer, by hand where it can (integers
+ * and 6-digit fixed notation whose rounding is not a near tie), and with
+ * sprintf() otherwise; _flush(), called before main() returns, writes
+ * the buffer. _rd() reads stdin with read(2), as much as there is, up to a
+ * block, writing the output before it waits, and converts each
+ * whitespace-delimited decimal number with strtod(), leaving anything
+ * else (e.g., "inf", or malformed input) to fscanf() on that token,
+ * so it reads, and consumes, what scanf("%lf") would.
  */
 public class Code {
 
-	private final String[] prologue={
+	private static final String[] prologue={
 		"#include <stdio.h>",
-		"int main() {",
-	};
-
-	private final String[] epilogue={
-		"return 0;",
+		"#include <ctype.h>",
+		"#include <stdlib.h>",
+		"#include <string.h>",
+		"#include <errno.h>",
+		"#include <unistd.h>",
+		"/* the iterations of \"while (x rel b) x+=d\", or -1 if x or b are not exact integers,",
+		"   or the loop does not end; rel is <, <=, >, >=, or != (see NodeWhileSum) */",
+		"static inline long long _trips(double x, double b, long long d, int rel) {",
+		"  if (!(x>=-0x1p53 && x<=0x1p53 && b>=-0x1p53 && b<=0x1p53)) return -1;",
+		"  long long X=(long long)x, B=(long long)b;",
+		"  if (X!=x || B!=b) return -1;",
+		"  switch (rel) {",
+		"  case 0: return X>=B ? 0 : d>0 ? (B-X+d-1)/d : -1;",
+		"  case 1: return X>B ? 0 : d>0 ? (B-X)/d+1 : -1;",
+		"  case 2: return X<=B ? 0 : d<0 ? (X-B-d-1)/-d : -1;",
+		"  case 3: return X<B ? 0 : d<0 ? (X-B)/-d+1 : -1;",
+		"  case 4: return X==B ? 0 : d!=0 && (B-X)%d==0 && (B-X)/d>0 ? (B-X)/d : -1;",
+		"  }",
+		"  return -1;",
+		"}",
+		"/* whether v stays an exact integer for n iterations adding at most a */",
+		"static inline int _fits(double v, long long n, long long a) {",
+		"  return v>=-0x1p53 && v<=0x1p53 && v==(long long)v && !(v==0 && 1/v<0)",
+		"    && (a==0 || n<=(9007199254740992LL-(long long)(v<0 ? -v : v))/a);",
+		"}",
+		"/* a buffered runtime for rd and wr: _rd() reads as scanf(\"%lf\") would,",
+		"   _wr() writes as printf(\"%g\\n\") would, and _flush() writes the output */",
+		"static char _out[1<<16];",
+		"static size_t _olen;",
+		"static void _flush(void) {",
+		"  fwrite(_out,1,_olen,stdout);",
+		"  _olen=0;",
+		"}",
+		"static inline void _wr(double v) {",
+		"  static const double _p10[]={1e-4,1e-3,1e-2,1e-1,1e0,1e1,1e2,1e3,1e4,1e5,1e6,1e7,1e8,1e9};",
+		"  if (_olen>sizeof _out-32)",
+		"    _flush();",
+		"  char *p=_out+_olen, t[20];",
+		"  double a=v<0 ? -v : v;",
+		"  int n=0;",
+		"  if (a<1e6 && (double)(long long)a==a) { /* an integer, \"-0\" included */",
+		"    long long d=(long long)a;",
+		"    do t[n++]='0'+d%10; while (d/=10);",
+		"    if (v<0 || 1/v<0)",
+		"      *p++='-';",
+		"    while (n)",
+		"      *p++=t[--n];",
+		"    *p++='\\n';",
+		"    _olen=p-_out;",
+		"    return;",
+		"  }",
+		"  if (a<1e6 && a>=1e-4) { /* 6 significant digits, unless a tie is too close to call */",
+		"    int x=5;",
+		"    while (a<_p10[x+4])",
+		"      x--;",
+		"    double s=a*_p10[9-x], f=s-(double)(long long)s;",
+		"    if (s>=1e5 && s<1e6 && (f<0.499999 || f>0.500001)) {",
+		"      long long d=(long long)(s+0.5);",
+		"      if (d<1000000) {",
+		"        for (int i=5; i>=0; i--, d/=10)",
+		"          t[i]='0'+d%10;",
+		"        for (n=6; n>1 && n>x+1 && t[n-1]=='0'; n--)",
+		"          ;",
+		"        if (v<0)",
+		"          *p++='-';",
+		"        int i=0;",
+		"        if (x>=0) {",
+		"          while (i<=x)",
+		"            *p++=t[i++];",
+		"          if (i<n)",
+		"            *p++='.';",
+		"        } else {",
+		"          *p++='0';",
+		"          *p++='.';",
+		"          for (int z=-1; z>x; z--)",
+		"            *p++='0';",
+		"        }",
+		"        while (i<n)",
+		"          *p++=t[i++];",
+		"        *p++='\\n';",
+		"        _olen=p-_out;",
+		"        return;",
+		"      }",
+		"    }",
+		"  }",
+		"  _olen+=sprintf(p,\"%g\\n\",v);",
+		"}",
+		"static char *_in;",
+		"static size_t _ipos, _ilen, _icap;",
+		"/* reads more input, keeping what is unread; returns 0 at the end.",
+		"   read() returns what is there, e.g., a line from a terminal or a pipe,",
+		"   rather than waiting for a full buffer, and the output is written first,",
+		"   so an interactive producer sees the answers to what it has sent */",
+		"static inline int _fill(void) {",
+		"  if (_ipos>0) {",
+		"    memmove(_in,_in+_ipos,_ilen-_ipos);",
+		"    _ilen-=_ipos;",
+		"    _ipos=0;",
+		"  }",
+		"  if (_icap-_ilen<4096) {",
+		"    _icap=_icap ? 2*_icap : 1<<16;",
+		"    _in=realloc(_in,_icap);",
+		"  }",
+		"  _flush();",
+		"  fflush(stdout);",
+		"  ssize_t n;",
+		"  do",
+		"    n=read(0,_in+_ilen,_icap-_ilen-1);",
+		"  while (n<0 && errno==EINTR);",
+		"  if (n<=0)",
+		"    return 0;",
+		"  _ilen+=n;",
+		"  return 1;",
+		"}",
+		"static inline void _rd(double *x) {",
+		"  do",
+		"    while (_ipos<_ilen && isspace((unsigned char)_in[_ipos]))",
+		"      _ipos++;",
+		"  while (_ipos==_ilen && _fill());",
+		"  if (_ipos==_ilen)",
+		"    return; /* the end of the input */",
+		"  size_t e=0; /* the token's length, which ends at a space, or the end */",
+		"  do",
+		"    while (_ipos+e<_ilen && !isspace((unsigned char)_in[_ipos+e]))",
+		"      e++;",
+		"  while (_ipos+e==_ilen && _fill());",
+		"  char *s=_in+_ipos, *end, c=s[e];",
+		"  s[e]=0;",
+		"  double v=strtod(s,&end);",
+		"  if (end==s+e && strspn(s,\"0123456789.eE+-\")==e) {",
+		"    *x=v;",
+		"    _ipos+=e;",
+		"  } else { /* e.g., \"inf\", or \"1e+x\": let scanf decide, and what it consumes */",
+		"    FILE *f=fmemopen(s,e,\"r\");",
+		"    fscanf(f,\"%lf\",x);",
+		"    _ipos+=ftell(f);",
+		"    fclose(f);",
+		"  }",
+		"  s[e]=c;",
 		"}",
 	};
 
+	private static final int buffer=1<<16;
+
+	/**
+	 * Writes the statements of main() into the file.
+	 */
+	private interface Body {
+		void write(Writer f) throws IOException;
+	}
+
 	/**
 	 * Constructs a Code object and writes the complete C program to a file.
 	 * If the "Code" environment variable is not set, it does nothing.
-	 * @param code The translated C code generated from the AST nodes.
+	 * @param code The translated C code generated from the AST nodes,
+	 * as statements of main() (see body()).
 	 * @param env The environment containing the variables to be declared.
 	 */
-	public Code(String code, Environment env) {
+	public Code(CharSequence code, Environment env) {
 		String fn=System.getenv("Code");
 		if (fn==null)
 			return;
 		try {
-			BufferedWriter f=new BufferedWriter(new FileWriter(fn+".c"));
-			for (String s: prologue)
-				f.write(s+"\n");
-			f.write(env.toC());
-			f.write(code);
-			for (String s: epilogue)
-				f.write(s+"\n");
-			f.close();
+			write(fn+".c",env,out -> out.append(code));
 		} catch (Exception e) {
 			System.err.println(e);
 		}
 	}
 
+	/**
+	 * Constructs a Code object and writes the complete C program to a named file.
+	 * @param fn The name of the C file to write.
+	 * @param code The translated C code generated from the AST nodes,
+	 * as statements of main() (see body()).
+	 * @param env The environment containing the variables to be declared.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public Code(String fn, CharSequence code, Environment env) throws IOException {
+		write(fn,env,out -> out.append(code));
+	}
+
+	/**
+	 * Constructs a Code object and writes the complete C program to a
+	 * named file, generating each program's C straight into it.
+	 * @param fn The name of the C file to write.
+	 * @param progs The roots of the programs' ASTs.
+	 * @param env The environment containing the variables to be declared.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public Code(String fn, List<Node> progs, Environment env) throws IOException {
+		write(fn,env,out -> {
+			Emitter e=new Emitter(out,1);
+			for (Node n: progs)
+				n.code(e);
+		});
+	}
+
+	/**
+	 * Generates a program's C, as statements of main().
+	 * @param n The root of the program's AST.
+	 * @return The C, indented as within main().
+	 */
+	public static StringBuilder body(Node n) {
+		StringBuilder s=new StringBuilder();
+		n.code(new Emitter(s,1));
+		return s;
+	}
+
+	private void write(String fn, Environment env, Body code) throws IOException {
+		try (FileChannel ch=FileChannel.open(Paths.get(fn),StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING);
+				Writer f=Channels.newWriter(ch,StandardCharsets.UTF_8.newEncoder(),buffer)) {
+			Emitter out=new Emitter(f,0);
+			for (String s: prologue)
+				out.append(s).newline();
+			out.append("int main() ").open();
+			env.toC(out);
+			code.write(f);
+			out.append("_flush();").newline().append("return 0;").newline().close().newline();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
 }
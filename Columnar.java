@@ -0,0 +1,297 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Runs the same programs over a table of inputs, one row per run,
+ * evaluating each expression over a whole column of rows at once.
+ * Rows are processed in chunks; each variable is a double[] column,
+ * with one lane per row. The arithmetic loops run over every lane,
+ * with no per-lane branches, so HotSpot can compile them to SIMD code.
+ * NodeIf and NodeWhile are evaluated under per-lane masks: a loop
+ * keeps going while any lane's condition holds.
+ * A row that diverges, by failing (an undefined variable, or running
+ * out of input) or by having input the scalar reader might parse
+ * differently, is re-run from scratch by eval(), as Batch does.
+ */
+public class Columnar {
+
+	private static final int chunk=1024;
+	private static final double epsilon=1e-9; // as in NodeRelop
+
+	private List<NodeBlock> progs;
+
+	/**
+	 * Constructs a columnar evaluator for already-parsed programs.
+	 * @param progs The programs, run in order against each row.
+	 */
+	public Columnar(List<NodeBlock> progs) {
+		this.progs=progs;
+	}
+
+	/**
+	 * Runs the programs on each row.
+	 * @param rows The rows; each holds the whitespace-separated values 'rd' reads.
+	 * @return The results, in the same order as the rows.
+	 */
+	public List<Batch.Result> run(List<String> rows) {
+		List<Batch.Result> results=new ArrayList<>();
+		for (int i=0; i<rows.size(); i+=chunk)
+			results.addAll(new Lanes(rows.subList(i,Math.min(rows.size(),i+chunk))).run());
+		return results;
+	}
+
+	/**
+	 * The columnar mode of Main: runs the programs on each line of stdin.
+	 * Each row's output is written to stdout, in order, preceded by a
+	 * "==> row N <==" line, and its errors likewise to stderr.
+	 * @param args The source programs.
+	 */
+	public static void main(String[] args) {
+		Parser parser=new Parser();
+		List<NodeBlock> progs=new ArrayList<>();
+		for (String prog: args)
+			try {
+				progs.add((NodeBlock)parser.parse(prog));
+			} catch (SyntaxException e) {
+				System.err.println(e);
+			}
+		List<String> rows=new ArrayList<>();
+		try {
+			BufferedReader in=new BufferedReader(new InputStreamReader(System.in));
+			for (String row; (row=in.readLine())!=null; )
+				rows.add(row);
+		} catch (IOException e) {
+			System.err.println(e);
+			return;
+		}
+		List<Batch.Result> results=new Columnar(progs).run(rows);
+		for (int i=0; i<results.size(); i++) {
+			String header="==> row "+(i+1)+" <==";
+			System.out.println(header);
+			System.out.print(results.get(i).out());
+			if (!results.get(i).err().isEmpty()) {
+				System.err.println(header);
+				System.err.print(results.get(i).err());
+			}
+		}
+	}
+
+	/**
+	 * The state of one chunk of rows.
+	 */
+	private class Lanes {
+
+		private int n;
+		private List<String> rows;
+		private double[][] inputs;
+		private int[] cursor;
+		private StringBuilder[] out;
+		private boolean[] alive; // false once a lane diverges
+		private Map<String,double[]> vals=new HashMap<>();
+		private Map<String,boolean[]> defs=new HashMap<>();
+
+		Lanes(List<String> rows) {
+			this.rows=rows;
+			n=rows.size();
+			inputs=new double[n][];
+			cursor=new int[n];
+			out=new StringBuilder[n];
+			alive=new boolean[n];
+			for (int i=0; i<n; i++) {
+				out[i]=new StringBuilder();
+				inputs[i]=parse(rows.get(i));
+				alive[i]=inputs[i]!=null;
+			}
+		}
+
+		/**
+		 * Parses a row, if its values are plain decimals,
+		 * which every reader parses the same.
+		 */
+		private double[] parse(String row) {
+			String[] words=row.trim().split("\\s+");
+			if (words.length==1 && words[0].isEmpty())
+				return new double[0];
+			double[] d=new double[words.length];
+			for (int i=0; i<words.length; i++) {
+				if (!words[i].matches("-?[0-9]+(\\.[0-9]+)?"))
+					return null;
+				d[i]=Double.parseDouble(words[i]);
+			}
+			return d;
+		}
+
+		List<Batch.Result> run() {
+			boolean[] all=alive.clone();
+			for (NodeBlock prog: progs)
+				try {
+					block(prog,all);
+				} catch (EvalException e) {
+					Arrays.fill(alive,false); // bogus operator: let eval() report it
+				}
+			List<Batch.Result> results=new ArrayList<>();
+			Batch scalar=new Batch(progs);
+			for (int i=0; i<n; i++)
+				results.add(alive[i]
+					? new Batch.Result(out[i].toString(),"")
+					: scalar.run(new ByteArrayInputStream(rows.get(i).getBytes(StandardCharsets.UTF_8))));
+			return results;
+		}
+
+		private boolean any(boolean[] mask) {
+			for (int i=0; i<n; i++)
+				if (mask[i])
+					return true;
+			return false;
+		}
+
+		// statements, run on the lanes in mask
+
+		private void block(NodeBlock block, boolean[] mask) throws EvalException {
+			for (NodeStmt s: block.getStmts())
+				stmt(s,mask);
+		}
+
+		private void assign(String id, double[] v, boolean[] mask) {
+			double[] x=vals.computeIfAbsent(id,k -> new double[n]);
+			boolean[] def=defs.computeIfAbsent(id,k -> new boolean[n]);
+			for (int i=0; i<n; i++)
+				if (mask[i]) {
+					x[i]=v[i];
+					def[i]=true;
+				}
+		}
+
+		private void stmt(NodeStmt stmt, boolean[] mask) throws EvalException {
+			if (!any(mask))
+				return;
+			Node s=stmt.getStmt();
+			if (s instanceof NodeAssn) {
+				NodeAssn assn=(NodeAssn)s;
+				assign(assn.getId(),expr(assn.getExpr(),mask),mask);
+			} else if (s instanceof NodeRd) {
+				double[] v=new double[n];
+				for (int i=0; i<n; i++)
+					if (mask[i] && alive[i]) {
+						if (cursor[i]<inputs[i].length)
+							v[i]=inputs[i][cursor[i]++];
+						else
+							alive[i]=false; // out of input
+					}
+				assign(((NodeRd)s).getId(),v,mask);
+			} else if (s instanceof NodeWr) {
+				double[] v=expr(((NodeWr)s).getExpr(),mask);
+				for (int i=0; i<n; i++)
+					if (mask[i] && alive[i])
+						out[i].append(Environment.format(v[i])).append('\n');
+			} else if (s instanceof NodeIf) {
+				NodeIf ifStmt=(NodeIf)s;
+				boolean[] c=cond(ifStmt.getBoolexpr(),mask);
+				boolean[] thenMask=new boolean[n];
+				boolean[] elseMask=new boolean[n];
+				for (int i=0; i<n; i++) {
+					thenMask[i]=mask[i] && alive[i] && c[i];
+					elseMask[i]=mask[i] && alive[i] && !c[i];
+				}
+				stmt(ifStmt.getThenStmt(),thenMask);
+				if (ifStmt.getElseStmt()!=null)
+					stmt(ifStmt.getElseStmt(),elseMask);
+			} else if (s instanceof NodeWhile) {
+				NodeWhile whileStmt=(NodeWhile)s;
+				boolean[] m=mask.clone();
+				while (true) {
+					boolean[] c=cond(whileStmt.getBoolexpr(),m);
+					for (int i=0; i<n; i++)
+						m[i]=m[i] && alive[i] && c[i];
+					if (!any(m))
+						break;
+					stmt(whileStmt.getStmt(),m);
+				}
+			} else if (s instanceof NodeBlock)
+				block((NodeBlock)s,mask);
+			else
+				throw new EvalException(stmt.pos,"Empty NodeStmt");
+		}
+
+		// expressions, computed on every lane; only lanes in mask
+		// are checked for undefined variables
+
+		private boolean[] cond(NodeBoolexpr b, boolean[] mask) throws EvalException {
+			double[] x=expr(b.getExpr1(),mask);
+			double[] y=expr(b.getExpr2(),mask);
+			boolean[] c=new boolean[n];
+			NodeRelop relop=b.getRelop();
+			switch (relop.getOp()) {
+			case "<": for (int i=0; i<n; i++) c[i]=x[i]<y[i]; break;
+			case "<=": for (int i=0; i<n; i++) c[i]=x[i]<=y[i]; break;
+			case ">": for (int i=0; i<n; i++) c[i]=x[i]>y[i]; break;
+			case ">=": for (int i=0; i<n; i++) c[i]=x[i]>=y[i]; break;
+			case "<>": for (int i=0; i<n; i++) c[i]=Math.abs(x[i]-y[i])>epsilon; break;
+			case "==": for (int i=0; i<n; i++) c[i]=Math.abs(x[i]-y[i])<epsilon; break;
+			default: throw new EvalException(relop.pos,"bogus relop: "+relop.getOp());
+			}
+			return c;
+		}
+
+		private double[] expr(NodeExpr e, boolean[] mask) throws EvalException {
+			if (e.getExpr()==null)
+				return term(e.getTerm(),mask);
+			double[] x=expr(e.getExpr(),mask);
+			double[] y=term(e.getTerm(),mask);
+			double[] r=new double[n];
+			NodeAddop addop=e.getAddop();
+			if (addop.getOp().equals("+"))
+				for (int i=0; i<n; i++) r[i]=x[i]+y[i];
+			else if (addop.getOp().equals("-"))
+				for (int i=0; i<n; i++) r[i]=x[i]-y[i];
+			else
+				throw new EvalException(addop.pos,"bogus addop: "+addop.getOp());
+			return r;
+		}
+
+		private double[] term(NodeTerm t, boolean[] mask) throws EvalException {
+			if (t.getTerm()==null)
+				return fact(t.getFact(),mask);
+			double[] x=term(t.getTerm(),mask);
+			double[] y=fact(t.getFact(),mask);
+			double[] r=new double[n];
+			NodeMulop mulop=t.getMulop();
+			if (mulop.getOp().equals("*"))
+				for (int i=0; i<n; i++) r[i]=x[i]*y[i];
+			else if (mulop.getOp().equals("/"))
+				for (int i=0; i<n; i++) r[i]=x[i]/y[i];
+			else
+				throw new EvalException(mulop.pos,"bogus mulop: "+mulop.getOp());
+			return r;
+		}
+
+		private double[] fact(NodeFact f, boolean[] mask) throws EvalException {
+			if (f instanceof NodeFactNum) {
+				double[] r=new double[n];
+				Arrays.fill(r,f.eval(null));
+				return r;
+			}
+			if (f instanceof NodeFactId) {
+				String id=((NodeFactId)f).getId();
+				boolean[] def=defs.get(id);
+				for (int i=0; i<n; i++)
+					if (mask[i] && (def==null || !def[i]))
+						alive[i]=false; // undefined variable
+				double[] x=vals.get(id);
+				return x!=null ? x : new double[n];
+			}
+			if (f instanceof NodeFactExpr)
+				return expr(((NodeFactExpr)f).getExpr(),mask);
+			if (f instanceof NodeFactUnary) {
+				double[] x=fact(((NodeFactUnary)f).getFact(),mask);
+				double[] r=new double[n];
+				for (int i=0; i<n; i++) r[i]=-x[i];
+				return r;
+			}
+			throw new EvalException(f.pos,"cannot eval() node!");
+		}
+
+	}
+
+}
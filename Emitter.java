@@ -0,0 +1,86 @@
+import java.io.*;
+
+/**
+ * Appends generated C to an Appendable (e.g., a StringBuilder, or
+ * Code's output file), one statement per line, indenting the lines
+ * within braces, so the C is readable as generated, and each node's
+ * code is written once, rather than copied into its ancestors' strings.
+ * An IOException from the Appendable is rethrown as an
+ * UncheckedIOException, so code() need not declare it; Code unwraps it.
+ */
+public class Emitter {
+
+	private static final String indent="  ";
+
+	private final Appendable out;
+	private int depth;
+	private boolean bol=true; // at the beginning of a line
+
+	/**
+	 * Constructs an emitter.
+	 * @param out Where the C is appended.
+	 * @param depth The braces the C is within, e.g., 1 for main()'s body.
+	 */
+	public Emitter(Appendable out, int depth) {
+		this.out=out;
+		this.depth=depth;
+	}
+
+	/**
+	 * Appends text, indented if it starts a line.
+	 * @param s The text, without newlines.
+	 * @return this.
+	 */
+	public Emitter append(CharSequence s) {
+		try {
+			if (bol)
+				for (int i=0; i<depth; i++)
+					out.append(indent);
+			bol=false;
+			out.append(s);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this;
+	}
+
+	/**
+	 * Ends the line.
+	 * @return this.
+	 */
+	public Emitter newline() {
+		try {
+			out.append('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		bol=true;
+		return this;
+	}
+
+	/**
+	 * Appends "{", ends the line, and indents the lines after it.
+	 * @return this.
+	 */
+	public Emitter open() {
+		return append("{").newline().in();
+	}
+
+	/**
+	 * Appends "}", on its own line, indented as the matching "{" was.
+	 * The caller ends the line, or continues it (e.g., with " else ").
+	 * @return this.
+	 */
+	public Emitter close() {
+		if (!bol)
+			newline();
+		depth--;
+		return append("}");
+	}
+
+	private Emitter in() {
+		depth++;
+		return this;
+	}
+
+}
@@ -13,18 +13,63 @@
 //   http://www.javatpoint.com/java-map
 // and elsewhere.
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.TreeSet;
 
+/**
+ * Variables live in a double[] frame, each at a fixed slot, so reading
+ * or writing one neither hashes its name nor boxes its value. Slots are
+ * given out in order of first mention, by slot(), which a resolution
+ * pass (see Slots) calls once per identifier before a program runs;
+ * the name-based get() and put() look the slot up on every call.
+ */
 public class Environment {
 
-	private Map<String, Double> map;
+	private static final byte UNKNOWN = 0;
+	private static final byte LONG = 1;
+	private static final byte DOUBLE = 2;
+
+	private Symbols names = new Symbols();		// variable -> slot
+	private double[] vals = new double[16];
+	private boolean[] defined = new boolean[16];
+	private byte[] types = new byte[16];		// for toC(): UNKNOWN, LONG, or DOUBLE
+	private java.util.Scanner in;
+	private PrintStream out;
 
 	/**
-	 * Constructs a new, empty Environment.
+	 * Constructs a new, empty Environment, reading from System.in
+	 * and writing to System.out.
 	 */
 	public Environment() {
-		map = new HashMap<>();
+		this(System.in, System.out);
+	}
+
+	/**
+	 * Constructs a new, empty Environment with its own input and output,
+	 * so independent runs (e.g., on different threads) do not share state.
+	 * @param in The stream 'rd' reads from.
+	 * @param out The stream 'wr' writes to.
+	 */
+	public Environment(InputStream in, PrintStream out) {
+		this.in = new java.util.Scanner(in);
+		this.out = out;
+	}
+
+	/**
+	 * Returns a variable's slot, giving it one if it has none yet.
+	 * @param var The name of the variable (e.g., "x").
+	 * @return The slot.
+	 */
+	public int slot(String var) {
+		int slot = names.intern(var);
+		if (slot >= vals.length) {
+			vals = Arrays.copyOf(vals, 2 * vals.length);
+			defined = Arrays.copyOf(defined, 2 * defined.length);
+			types = Arrays.copyOf(types, 2 * types.length);
+		}
+		return slot;
 	}
 
 	/**
@@ -34,7 +79,18 @@ public class Environment {
 	 * @return The value that was stored.
 	 */
 	public double put(String var, double val) {
-		map.put(var, val);
+		return put(slot(var), val);
+	}
+
+	/**
+	 * Stores a value in a variable's slot.
+	 * @param slot The slot, from slot().
+	 * @param val The double value to store.
+	 * @return The value that was stored.
+	 */
+	public double put(int slot, double val) {
+		vals[slot] = val;
+		defined[slot] = true;
 		return val;
 	}
 
@@ -46,25 +102,129 @@ public class Environment {
 	 * @throws EvalException if the variable is not defined.
 	 */
 	public double get(int pos, String var) throws EvalException {
-		Double val = map.get(var);
-		if (val == null) {
-			throw new EvalException(pos, "undefined variable: " + var);
+		return get(pos, slot(var));
+	}
+
+	/**
+	 * Retrieves the value in a variable's slot.
+	 * @param pos The position in the source code (for error reporting).
+	 * @param slot The slot, from slot().
+	 * @return The double value of the variable.
+	 * @throws EvalException if the variable is not defined.
+	 */
+	public double get(int pos, int slot) throws EvalException {
+		if (!defined[slot]) {
+			throw new EvalException(pos, "undefined variable: " + names.name(slot));
 		}
-		return val;
+		return vals[slot];
+	}
+
+	/**
+	 * Adds to the value in a variable's slot, in place.
+	 * @param pos The position in the source code (for error reporting).
+	 * @param slot The slot, from slot().
+	 * @param delta The value to add.
+	 * @return The variable's new value.
+	 * @throws EvalException if the variable is not defined.
+	 */
+	public double add(int pos, int slot, double delta) throws EvalException {
+		if (!defined[slot]) {
+			throw new EvalException(pos, "undefined variable: " + names.name(slot));
+		}
+		return vals[slot] += delta;
+	}
+
+	/**
+	 * Reads the next double from this environment's input, for 'rd'.
+	 * @return The double value that was read.
+	 */
+	public double read() {
+		return in.nextDouble();
+	}
+
+	/**
+	 * Prints a value to this environment's output, for 'wr'.
+	 * @param d The value to print.
+	 */
+	public void write(double d) {
+		out.println(format(d));
+	}
+
+	/**
+	 * Prints a whole value to this environment's output, for 'wr',
+	 * as format() would print it as a double.
+	 * @param l The value to print.
+	 */
+	public void write(long l) {
+		out.println(l);
+	}
+
+	/**
+	 * Records how a variable is used, for its C declaration: a variable
+	 * is declared long only if every assignment to it, and every read
+	 * of it, has been proven integral (see Types), and double otherwise.
+	 * @param var The name of the variable.
+	 * @param integral true if the assigned, or read, value is integral.
+	 */
+	public void type(String var, boolean integral) {
+		int slot = slot(var);
+		if (!integral)
+			types[slot] = DOUBLE;
+		else if (types[slot] == UNKNOWN)
+			types[slot] = LONG;
+	}
+
+	/**
+	 * Formats a value the way 'wr' prints it: whole numbers as
+	 * integers (e.g., "3") and fractional numbers as doubles (e.g., "3.5").
+	 * @param d The value.
+	 * @return The text, e.g., "3" or "3.5".
+	 */
+	public static String format(double d) {
+		long i = (long) d;
+		if (i == d) // Check if it's a whole number
+			return Long.toString(i);
+		return Double.toString(d);
+	}
+
+	/**
+	 * Tells whether a variable is defined in the environment.
+	 * @param var The name of the variable.
+	 * @return true if the variable has a value.
+	 */
+	public boolean has(String var) {
+		int slot = slot(var); // first, as it may grow defined
+		return defined[slot];
 	}
 
 	/**
 	 * Generates C code to declare all variables used in this environment.
-	 * @return A string of C code, e.g., "double x,y;".
+	 * Variables are declared in sorted order, so the same program
+	 * always produces the same C. Temporaries ("_t1") are not: each is
+	 * declared where it is defined (see NodeDecl). Variables only ever
+	 * holding integers (see type()) are declared long, the rest double.
+	 * @param out Where the C code is appended, e.g., "double x,y;".
 	 */
-	public String toC() {
-		String s = "";
+	public void toC(Emitter out) {
+		TreeSet<String> doubles = new TreeSet<>();
+		TreeSet<String> longs = new TreeSet<>();
+		for (int slot = 0; slot < names.size(); slot++)
+			if (defined[slot] && names.name(slot).charAt(0) != '_')
+				(types[slot] == LONG ? longs : doubles).add(names.name(slot));
+		toC(out, "double", doubles);
+		toC(out, "long", longs);
+	}
+
+	private static void toC(Emitter out, String type, TreeSet<String> vars) {
+		if (vars.isEmpty())
+			return;
 		String sep = " ";
-		for (String v : map.keySet()) {
-			s += sep + v;
+		out.append(type);
+		for (String v : vars) {
+			out.append(sep).append(v);
 			sep = ",";
 		}
-		return s == "" ? "" : "double" + s + ";\n";
+		out.append(";").newline();
 	}
 
 }
\ No newline at end of file
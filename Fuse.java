@@ -0,0 +1,114 @@
+/**
+ * The superinstruction pass: rewrites the statement shapes that
+ * dominate loops into fused nodes, whose eval() skips the NodeExpr,
+ * NodeTerm, and NodeFact levels between a statement and its variables:
+ * <ul>
+ * <li>"x = x + c" and "x = x - c", with c a literal, become NodeIncr,
+ * a single read-modify-write of x's slot.</li>
+ * <li>"x = y" becomes NodeCopy.</li>
+ * <li>"while x relop c do ...", with c a literal, becomes NodeWhileVar.</li>
+ * </ul>
+ * The fused nodes extend the nodes they replace, so code(), and the
+ * other passes' walkers, see the same tree. Rewritten statements are
+ * new nodes, and their ancestors are copied, so the input tree is
+ * unchanged, and can be compiled, e.g., on another thread, meanwhile;
+ * the expressions are shared. Main runs this only before eval().
+ */
+public class Fuse {
+
+	/**
+	 * Fuses a program's statements.
+	 * @param n The root of the program's AST.
+	 * @return The root of the fused AST.
+	 */
+	public static Node fuse(Node n) {
+		return n instanceof NodeBlock ? block((NodeBlock)n) : n;
+	}
+
+	private static NodeBlock block(NodeBlock b) {
+		NodeBlock block=new NodeBlock();
+		block.pos=b.pos;
+		for (NodeStmt s: b.getStmts())
+			block.addStmt(stmt(s));
+		return block;
+	}
+
+	private static NodeStmt stmt(NodeStmt s) {
+		Node n=s.getStmt();
+		NodeStmt stmt;
+		if (n instanceof NodeAssn) {
+			NodeAssn a=(NodeAssn)n;
+			NodeAssn assn=assn(a);
+			if (assn==a)
+				return s;
+			assn.pos=a.pos;
+			stmt=new NodeStmt(assn);
+		} else if (n instanceof NodeIf) {
+			NodeIf i=(NodeIf)n;
+			NodeIf ifStmt=new NodeIf(i.getBoolexpr(),stmt(i.getThenStmt()),
+				i.getElseStmt()==null ? null : stmt(i.getElseStmt()));
+			ifStmt.pos=i.pos;
+			stmt=new NodeStmt(ifStmt);
+		} else if (n instanceof NodeWhileSum)
+			return s; // summarized, see ClosedForm
+		else if (n instanceof NodeWhile) {
+			NodeWhile w=(NodeWhile)n;
+			NodeBoolexpr cond=w.getBoolexpr();
+			NodeStmt body=stmt(w.getStmt());
+			NodeFactId var=var(cond.getExpr1());
+			NodeFactNum num=cond.getExpr2().getExpr()==null ? num(cond.getExpr2().getTerm()) : null;
+			NodeWhile whileStmt=var!=null && num!=null
+				? new NodeWhileVar(cond,body,var,num.getVal())
+				: new NodeWhile(cond,body);
+			whileStmt.pos=w.pos;
+			stmt=new NodeStmt(whileStmt);
+		} else if (n instanceof NodeBlock)
+			stmt=new NodeStmt(block((NodeBlock)n));
+		else
+			return s; // rd, wr
+		stmt.pos=s.pos;
+		return stmt;
+	}
+
+	/**
+	 * Fuses an assignment.
+	 * @return The fused assignment, or a, if it has no fused form.
+	 */
+	private static NodeAssn assn(NodeAssn a) {
+		NodeExpr e=a.getExpr();
+		NodeFactId var=var(e);
+		if (var!=null)
+			return new NodeCopy(a.getId(),e,var);
+		if (e.getExpr()==null || e.getExpr().getExpr()!=null)
+			return a;
+		var=var(e.getExpr());
+		NodeFactNum num=num(e.getTerm());
+		if (var==null || num==null || !var.getId().equals(a.getId()))
+			return a;
+		double c=num.getVal();
+		return new NodeIncr(a.getId(),e,var,e.getAddop().getOp().equals("+") ? c : -c);
+	}
+
+	/**
+	 * Returns an expression's variable, if it is only that.
+	 * @return The variable's node, or null.
+	 */
+	private static NodeFactId var(NodeExpr e) {
+		NodeFact f=fact(e);
+		return f instanceof NodeFactId ? (NodeFactId)f : null;
+	}
+
+	/**
+	 * Returns a term's literal, if it is only that.
+	 * @return The literal's node, or null.
+	 */
+	private static NodeFactNum num(NodeTerm t) {
+		return t.getTerm()==null && t.getFact() instanceof NodeFactNum
+			? (NodeFactNum)t.getFact() : null;
+	}
+
+	private static NodeFact fact(NodeExpr e) {
+		return e.getExpr()==null && e.getTerm().getTerm()==null ? e.getTerm().getFact() : null;
+	}
+
+}
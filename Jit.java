@@ -0,0 +1,287 @@
+import java.lang.invoke.*;
+import java.util.*;
+
+/**
+ * An alternative backend to eval(), which compiles a program's
+ * NodeBlock into JVM bytecode and runs it as a hidden class,
+ * so HotSpot can JIT the program itself.
+ * Each variable lives in a local double slot, paired with an int
+ * slot recording whether it has been assigned yet. Variables are
+ * loaded from the environment on entry and stored back on exit,
+ * even when the program fails part way through.
+ */
+public class Jit {
+
+	private static final String ENV="Environment";
+	private static final MethodHandles.Lookup lookup=MethodHandles.lookup();
+
+	private Bytecode bc=new Bytecode();
+	private Environment env;
+	private Map<String,Integer> slots=new LinkedHashMap<>(); // var -> value slot; flag slot is +2
+
+	private Jit(Environment env) {
+		this.env=env;
+	}
+
+	/**
+	 * Runs a program as JVM bytecode.
+	 * Programs too large for one JVM method, or that the JVM otherwise
+	 * refuses to load, are run by eval() instead.
+	 * @param block The program to run.
+	 * @param env The environment to run in.
+	 * @throws EvalException If the program fails, as eval() would.
+	 */
+	public static void run(NodeBlock block, Environment env) throws EvalException {
+		MethodHandle mh;
+		try {
+			mh=new Jit(env).compile(block);
+		} catch (IllegalStateException e) {
+			block.eval(env);
+			return;
+		}
+		try {
+			mh.invokeExact(env);
+		} catch (EvalException|RuntimeException|Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Builds the exception thrown by compiled code when it reads an undefined variable.
+	 * @param pos The position of the read.
+	 * @param var The variable.
+	 * @return The exception to throw.
+	 */
+	public static EvalException undefined(int pos, String var) {
+		return new EvalException(pos,"undefined variable: "+var);
+	}
+
+	private MethodHandle compile(NodeBlock block) throws EvalException {
+		for (String v: Vars.of(block))
+			slots.put(v,1+3*slots.size());
+		Set<String> defined=new HashSet<>();
+		for (Map.Entry<String,Integer> e: slots.entrySet()) {
+			String v=e.getKey();
+			int slot=e.getValue();
+			if (env.has(v)) {
+				bc.local(Bytecode.ALOAD,0,1);
+				bc.pushInt(0);
+				bc.pushString(v);
+				bc.invoke(Bytecode.INVOKEVIRTUAL,ENV,"get","(ILjava/lang/String;)D",-1);
+				bc.local(Bytecode.DSTORE,slot,-2);
+				bc.op(Bytecode.ICONST_1,1);
+				defined.add(v);
+			} else {
+				bc.op(Bytecode.DCONST_0,2);
+				bc.local(Bytecode.DSTORE,slot,-2);
+				bc.op(Bytecode.ICONST_0,1);
+			}
+			bc.local(Bytecode.ISTORE,slot+2,-1);
+		}
+		Bytecode.Label start=bc.label();
+		Bytecode.Label end=bc.label();
+		Bytecode.Label handler=bc.label();
+		bc.bind(start);
+		block(block,defined);
+		bc.bind(end);
+		writeBack();
+		bc.op(Bytecode.RETURN,0);
+		bc.bind(handler);
+		bc.handler(start,end,handler);
+		int exn=1+3*slots.size();
+		bc.local(Bytecode.ASTORE,exn,-1);
+		writeBack();
+		bc.local(Bytecode.ALOAD,exn,1);
+		bc.op(Bytecode.ATHROW,-1);
+		byte[] bytes=bc.toClass("JitProgram","run","(L"+ENV+";)V");
+		try {
+			Class<?> c=lookup.defineHiddenClass(bytes,true).lookupClass();
+			return lookup.findStatic(c,"run",MethodType.methodType(void.class,Environment.class));
+		} catch (ReflectiveOperationException|LinkageError e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void writeBack() {
+		for (Map.Entry<String,Integer> e: slots.entrySet()) {
+			Bytecode.Label skip=bc.label();
+			bc.local(Bytecode.ILOAD,e.getValue()+2,1);
+			bc.branch(Bytecode.IFEQ,skip);
+			bc.local(Bytecode.ALOAD,0,1);
+			bc.pushString(e.getKey());
+			bc.local(Bytecode.DLOAD,e.getValue(),2);
+			bc.invoke(Bytecode.INVOKEVIRTUAL,ENV,"put","(Ljava/lang/String;D)D",-2);
+			bc.op(Bytecode.POP2,-2);
+			bc.bind(skip);
+		}
+	}
+
+	// statements
+	// "defined" holds the variables that are surely assigned at this point,
+	// whose reads need no check.
+
+	private void block(NodeBlock block, Set<String> defined) throws EvalException {
+		for (NodeStmt s: block.getStmts())
+			stmt(s,defined);
+	}
+
+	private void assign(String id, Set<String> defined) {
+		int slot=slots.get(id);
+		bc.local(Bytecode.DSTORE,slot,-2);
+		if (defined.add(id)) {
+			bc.op(Bytecode.ICONST_1,1);
+			bc.local(Bytecode.ISTORE,slot+2,-1);
+		}
+	}
+
+	private void stmt(NodeStmt stmt, Set<String> defined) throws EvalException {
+		Node n=stmt.getStmt();
+		if (n instanceof NodeAssn) {
+			NodeAssn assn=(NodeAssn)n;
+			expr(assn.getExpr(),defined);
+			assign(assn.getId(),defined);
+		} else if (n instanceof NodeRd) {
+			bc.local(Bytecode.ALOAD,0,1);
+			bc.invoke(Bytecode.INVOKEVIRTUAL,ENV,"read","()D",1);
+			assign(((NodeRd)n).getId(),defined);
+		} else if (n instanceof NodeWr) {
+			bc.local(Bytecode.ALOAD,0,1);
+			expr(((NodeWr)n).getExpr(),defined);
+			bc.invoke(Bytecode.INVOKEVIRTUAL,ENV,"write","(D)V",-3);
+		} else if (n instanceof NodeIf) {
+			NodeIf ifStmt=(NodeIf)n;
+			Bytecode.Label otherwise=bc.label();
+			Bytecode.Label done=bc.label();
+			cond(ifStmt.getBoolexpr(),otherwise,defined);
+			Set<String> thenDefined=new HashSet<>(defined);
+			stmt(ifStmt.getThenStmt(),thenDefined);
+			bc.branch(Bytecode.GOTO,done);
+			bc.bind(otherwise);
+			if (ifStmt.getElseStmt()!=null) {
+				Set<String> elseDefined=new HashSet<>(defined);
+				stmt(ifStmt.getElseStmt(),elseDefined);
+				thenDefined.retainAll(elseDefined);
+				defined.addAll(thenDefined);
+			}
+			bc.bind(done);
+		} else if (n instanceof NodeWhile) {
+			NodeWhile whileStmt=(NodeWhile)n;
+			Bytecode.Label top=bc.label();
+			Bytecode.Label done=bc.label();
+			bc.bind(top);
+			cond(whileStmt.getBoolexpr(),done,defined);
+			stmt(whileStmt.getStmt(),new HashSet<>(defined));
+			bc.branch(Bytecode.GOTO,top);
+			bc.bind(done);
+		} else if (n instanceof NodeBlock)
+			block((NodeBlock)n,defined);
+		else
+			throw new EvalException(stmt.pos,"Empty NodeStmt");
+	}
+
+	// expressions, which leave a double on the stack
+
+	private void cond(NodeBoolexpr b, Bytecode.Label otherwise, Set<String> defined) throws EvalException {
+		expr(b.getExpr1(),defined);
+		expr(b.getExpr2(),defined);
+		NodeRelop relop=b.getRelop();
+		// Mirror NodeRelop.op(), including its NaN behavior and epsilon.
+		switch (relop.getOp()) {
+		case "<":
+			bc.op(Bytecode.DCMPG,-3);
+			bc.branch(Bytecode.IFGE,otherwise);
+			break;
+		case "<=":
+			bc.op(Bytecode.DCMPG,-3);
+			bc.branch(Bytecode.IFGT,otherwise);
+			break;
+		case ">":
+			bc.op(Bytecode.DCMPL,-3);
+			bc.branch(Bytecode.IFLE,otherwise);
+			break;
+		case ">=":
+			bc.op(Bytecode.DCMPL,-3);
+			bc.branch(Bytecode.IFLT,otherwise);
+			break;
+		case "<>":
+			distance();
+			bc.op(Bytecode.DCMPL,-3);
+			bc.branch(Bytecode.IFLE,otherwise);
+			break;
+		case "==":
+			distance();
+			bc.op(Bytecode.DCMPG,-3);
+			bc.branch(Bytecode.IFGE,otherwise);
+			break;
+		default:
+			throw new EvalException(relop.pos,"bogus relop: "+relop.getOp());
+		}
+	}
+
+	private void distance() {
+		bc.op(Bytecode.DSUB,-2);
+		bc.invoke(Bytecode.INVOKESTATIC,"java/lang/Math","abs","(D)D",0);
+		bc.pushDouble(1e-9);
+	}
+
+	private void expr(NodeExpr e, Set<String> defined) throws EvalException {
+		if (e.getExpr()==null) {
+			term(e.getTerm(),defined);
+			return;
+		}
+		expr(e.getExpr(),defined);
+		term(e.getTerm(),defined);
+		NodeAddop addop=e.getAddop();
+		if (addop.getOp().equals("+"))
+			bc.op(Bytecode.DADD,-2);
+		else if (addop.getOp().equals("-"))
+			bc.op(Bytecode.DSUB,-2);
+		else
+			throw new EvalException(addop.pos,"bogus addop: "+addop.getOp());
+	}
+
+	private void term(NodeTerm t, Set<String> defined) throws EvalException {
+		if (t.getTerm()==null) {
+			fact(t.getFact(),defined);
+			return;
+		}
+		term(t.getTerm(),defined);
+		fact(t.getFact(),defined);
+		NodeMulop mulop=t.getMulop();
+		if (mulop.getOp().equals("*"))
+			bc.op(Bytecode.DMUL,-2);
+		else if (mulop.getOp().equals("/"))
+			bc.op(Bytecode.DDIV,-2);
+		else
+			throw new EvalException(mulop.pos,"bogus mulop: "+mulop.getOp());
+	}
+
+	private void fact(NodeFact f, Set<String> defined) throws EvalException {
+		if (f instanceof NodeFactNum)
+			bc.pushDouble(((NodeFactNum)f).getVal());
+		else if (f instanceof NodeFactId) {
+			String id=((NodeFactId)f).getId();
+			int slot=slots.get(id);
+			if (!defined.contains(id)) {
+				Bytecode.Label ok=bc.label();
+				bc.local(Bytecode.ILOAD,slot+2,1);
+				bc.branch(Bytecode.IFNE,ok);
+				bc.pushInt(f.pos);
+				bc.pushString(id);
+				bc.invoke(Bytecode.INVOKESTATIC,"Jit","undefined","(ILjava/lang/String;)LEvalException;",-1);
+				bc.op(Bytecode.ATHROW,-1);
+				bc.bind(ok);
+			}
+			bc.local(Bytecode.DLOAD,slot,2);
+		} else if (f instanceof NodeFactExpr)
+			expr(((NodeFactExpr)f).getExpr(),defined);
+		else if (f instanceof NodeFactUnary) {
+			fact(((NodeFactUnary)f).getFact(),defined);
+			bc.op(Bytecode.DNEG,0);
+		} else
+			throw new EvalException(f.pos,"cannot eval() node!");
+	}
+
+}
@@ -1,28 +1,323 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
  * The main entry point for the interpreter and compiler.
  * It processes each command-line argument as a separate program,
  * sharing a single environment among them. This allows variables
  * defined in one program to be used in subsequent ones.
+ * The "Exec" environment variable selects how programs are run:
+ * unset for the tree-walking interpreter (over fused statements; see Fuse), "jit" for JVM bytecode,
+ * "vm" for the register VM, "native" for a cached gcc-built binary
+ * (see Native; if gcc is unavailable, the interpreter is used),
+ * or "pe" to specialize the programs against the inputs in the file
+ * named by the "Known" environment variable, then run the residual
+ * programs (see PartialEval); the generated C is then the residual C.
+ * With "batch", the programs are run on each input file named on stdin,
+ * in parallel (see Batch), and no C is generated.
+ * With "columnar", they are run on each line of stdin as one row of
+ * inputs, many rows at a time (see Columnar), and no C is generated.
+ * With "stream", each argument is instead the name of a file holding a
+ * program, which is memory-mapped (or read, if it is not a regular file,
+ * e.g., a pipe) and run one top-level statement at a time, as each is
+ * parsed, so memory does not grow with the program; a syntax error stops
+ * its program after the statements before it have run, and no C is generated.
+ * With "watch", the arguments are also program files, which are run,
+ * then re-parsed incrementally and re-run whenever one changes (see Watch).
+ * With "server", Main becomes a daemon that runs programs sent to it
+ * over a Unix domain socket by Client (see Server).
+ * With "arena", the programs are stored as flat arrays of nodes rather
+ * than as trees of objects, then run and compiled as usual (see Arena);
+ * if "Cache" is set, each program's arena is kept in that directory,
+ * and loaded from there, rather than parsed, on later runs.
+ * With "vm", setting the "Disasm" environment variable also prints
+ * each program's VM code to stderr. Setting "Timing" prints, after each
+ * program runs, the time each of its passes took (see Passes).
  */
 public class Main {
 
+	private static final long stack=1L<<30; // reserved, not committed, until used
+
+	private static final ExecutorService pool=Executors.newFixedThreadPool(
+		Runtime.getRuntime().availableProcessors(),
+		r -> { Thread t=thread(r); t.setDaemon(true); return t; });
+
 	/**
-	 * The main method.
-	 * @param args An array of strings, where each string is a source program to be translated.
+	 * Makes a thread with a stack as large as the one main() runs the
+	 * programs on, for running them on other threads, e.g., in a Server.
+	 * @param r What the thread runs.
+	 * @return The thread, not yet started.
+	 */
+	static Thread thread(Runnable r) {
+		return new Thread(null,r,"ta1",stack);
+	}
+
+	/**
+	 * Runs a parsed program with the selected execution engine.
+	 * @param exec The value of the "Exec" environment variable, or null.
+	 * @param node The root of the program's AST.
+	 * @param env The shared environment.
+	 * @param err Where the VM code is printed, if "Disasm" is set.
+	 * @throws EvalException If the program fails.
+	 */
+	private static void exec(String exec, Node node, Environment env, PrintStream err)
+			throws EvalException {
+		if ("jit".equals(exec))
+			Jit.run((NodeBlock)node,env);
+		else if ("vm".equals(exec)) {
+			Vm vm=Vm.compile((NodeBlock)node);
+			if (System.getenv("Disasm")!=null)
+				err.print(vm.disassemble());
+			vm.run(env);
+		} else {
+			node=Fuse.fuse(node);
+			Slots.resolve(node,env);
+			node.eval(env);
+		}
+	}
+
+	/**
+	 * A program parsed on the pool: its AST, or its syntax error,
+	 * and the illegal characters the scanner reported.
+	 */
+	private static class Parsed {
+		private Node node;
+		private Passes passes=new Passes();
+		private SyntaxException error;
+		private String warnings;
+	}
+
+	private static Parsed parse(String exec, String prog) {
+		Parsed p=new Parsed();
+		ByteArrayOutputStream warnings=new ByteArrayOutputStream();
+		try {
+			Parser parser=new Parser(new PrintStream(warnings,true));
+			if ("arena".equals(exec))
+				p.node=arena(prog,parser,warnings).root();
+			else
+				p.node=p.passes.add("optimize",(n,passes) -> Optimizer.optimize(n))
+					.run(parser.parse(prog));
+		} catch (SyntaxException e) {
+			p.error=e;
+		}
+		p.warnings=warnings.toString();
+		return p;
+	}
+
+	/**
+	 * Parses a program into an Arena, or, if the "Cache" environment
+	 * variable names a directory, loads it from there, if it has been
+	 * parsed before. A program is cached only if it has no illegal
+	 * characters, whose warnings must be repeated on every run.
+	 * A cached arena that cannot be loaded, e.g., from an older version,
+	 * is re-parsed and replaced.
+	 */
+	private static Arena arena(String prog, Parser parser, ByteArrayOutputStream warnings)
+			throws SyntaxException {
+		String dir=System.getenv("Cache");
+		Path file=dir==null ? null : Paths.get(dir).resolve(Arena.key(prog));
+		if (file!=null)
+			try {
+				Arena arena=Arena.load(file);
+				if (arena!=null)
+					return arena;
+			} catch (java.io.IOException e) {
+				// re-parse
+			}
+		parser.start(Source.of(prog));
+		Arena arena=Arena.parse(parser);
+		if (file!=null && warnings.size()==0)
+			try {
+				arena.write(file);
+			} catch (java.io.IOException e) {
+				System.err.println(e);
+			}
+		return arena;
+	}
+
+	/**
+	 * Parses and runs each program in turn, sharing one environment.
+	 * A program that fails is reported, and the next one is run.
+	 * The programs are parsed, and optimized (see Optimizer), in parallel,
+	 * on a pool of threads with main()'s stack, since both recurse on the AST,
+	 * and each one's C is generated there while the next one runs;
+	 * only the SSA optimizations (see Ssa), type inference (see Types), which
+	 * records the variables' C types, evaluation, and error reporting are in
+	 * argument order. A program whose task on the pool fails, e.g., with a
+	 * StackOverflowError, is reported like one that fails to run.
+	 * @param exec The value of the "Exec" environment variable, or null.
+	 * @param progs The source programs.
+	 * @param env The shared environment.
+	 * @param err Where errors are reported.
+	 * @return The C for the programs that parsed.
+	 */
+	static String run(String exec, String[] progs, Environment env, PrintStream err) {
+		List<Future<Parsed>> parsed=new ArrayList<>();
+		for (String prog: progs)
+			parsed.add(pool.submit(() -> parse(exec,prog)));
+		List<Future<StringBuilder>> codes=new ArrayList<>();
+		for (Future<Parsed> task: parsed) {
+			Parsed p;
+			try {
+				p=join(task);
+			} catch (ExecutionException e) {
+				err.println(e.getCause());
+				continue;
+			}
+			err.print(p.warnings);
+			if (p.error!=null) {
+				err.println(p.error);
+				continue;
+			}
+			try {
+				Node node=p.passes.add("ssa",(n,passes) -> Ssa.optimize(n))
+					.add("closedform",ClosedForm::optimize)
+					.add("types",(n,passes) -> { Types.infer(n,env); return n; })
+					.run(p.node);
+				exec(exec,node,env,err);
+				if (System.getenv("Timing")!=null)
+					err.println(p.passes.times());
+				codes.add(pool.submit(() -> Code.body(node)));
+			} catch (Exception e) {
+				err.println(e);
+			}
+		}
+		StringBuilder code=new StringBuilder();
+		for (Future<StringBuilder> c: codes)
+			try {
+				code.append(join(c));
+			} catch (ExecutionException e) {
+				err.println(e.getCause());
+			}
+		return code.toString();
+	}
+
+	/**
+	 * Waits for a task on the pool, like ForkJoinTask.join(): an interrupt
+	 * does not stop the wait, but is kept for the caller to see.
+	 * @param task The task.
+	 * @return Its result.
+	 * @throws ExecutionException If the task threw.
+	 */
+	private static <T> T join(Future<T> task) throws ExecutionException {
+		boolean interrupted=false;
+		try {
+			while (true)
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted=true;
+				}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The stream mode: runs each program file as it is parsed.
+	 * @param files The names of the program files.
 	 */
-	public static void main(String[] args) {
+	private static void stream(String[] files) {
 		Parser parser=new Parser();
 		Environment env=new Environment();
-		String code="";
-		for (String prog: args)
+		for (String fn: files)
+			try {
+				Path path=Paths.get(fn);
+				parser.start(Files.isRegularFile(path)
+					? Source.map(path)
+					: Source.of(Files.newBufferedReader(path,StandardCharsets.ISO_8859_1)));
+				for (NodeStmt stmt; (stmt=parser.nextStmt())!=null; )
+					stmt.eval(env);
+			} catch (Exception e) {
+				System.err.println(e);
+			}
+	}
+
+	/**
+	 * Reads the inputs a program is specialized against.
+	 * @return The values in the file named by the "Known" environment variable,
+	 * or none if it is not set.
+	 */
+	private static List<Double> known() {
+		List<Double> known=new ArrayList<>();
+		String fn=System.getenv("Known");
+		if (fn!=null)
+			try (java.util.Scanner in=new java.util.Scanner(new java.io.File(fn))) {
+				while (in.hasNextDouble())
+					known.add(in.nextDouble());
+			} catch (java.io.IOException e) {
+				System.err.println(e);
+			}
+		return known;
+	}
+
+	/**
+	 * The main method. The programs are run on a thread with a large
+	 * stack, since evaluation and code generation recurse on the AST,
+	 * e.g., once per term of a long expression.
+	 * @param args An array of strings, where each string is a source program to be translated.
+	 * @throws InterruptedException If interrupted while waiting for the programs.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		Thread main=new Thread(null,() -> main(System.getenv("Exec"),args),"main",stack);
+		main.start();
+		main.join();
+	}
+
+	private static void main(String exec, String[] args) {
+		if ("stream".equals(exec)) {
+			stream(args);
+			return;
+		}
+		if ("watch".equals(exec)) {
 			try {
-				Node node=parser.parse(prog);
-				node.eval(env);
-				code+=node.code();
+				Watch.main(args);
 			} catch (Exception e) {
 				System.err.println(e);
 			}
-		new Code(code,env);
+			return;
+		}
+		if ("server".equals(exec)) {
+			try {
+				Server.main(args);
+			} catch (java.io.IOException e) {
+				System.err.println(e);
+			}
+			return;
+		}
+		if ("columnar".equals(exec)) {
+			Columnar.main(args);
+			return;
+		}
+		if ("batch".equals(exec)) {
+			Batch.main(args);
+			return;
+		}
+		if ("native".equals(exec))
+			try {
+				if (Native.run(args))
+					return;
+			} catch (Exception e) {
+				System.err.println(e);
+				return;
+			}
+		if ("pe".equals(exec)) {
+			PartialEval.run(args,known());
+			return;
+		}
+		Environment env=new Environment();
+		new Code(run(exec,args,env,System.err),env);
 	}
 
 }
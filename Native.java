@@ -0,0 +1,129 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * Runs programs natively: the C from code() is compiled with gcc -O2
+ * and the binary is run with stdin/stdout wired through.
+ * Binaries are cached on disk, keyed by a hash of the normalized
+ * program text, so repeated runs of the same programs skip both
+ * C generation and gcc. The cache directory is named by the "Cache"
+ * environment variable, defaulting to ta1-cache in the temp directory.
+ * Since the binary runs the generated C, it has the C backend's
+ * semantics: e.g., undefined variables are not reported.
+ */
+public class Native {
+
+	private static final String version="native-5 gcc -O2"; // part of every key
+
+	/**
+	 * Runs the programs as one native binary, building it if it is not cached.
+	 * @param progs The source programs, as passed to Main.
+	 * @return false if the binary could not be built (e.g., no gcc),
+	 * in which case nothing has been run or printed.
+	 * @throws IOException If the binary cannot be run.
+	 * @throws InterruptedException If interrupted while waiting for a process.
+	 */
+	public static boolean run(String[] progs) throws IOException, InterruptedException {
+		String dir=System.getenv("Cache");
+		Path cache=dir!=null
+			? Paths.get(dir)
+			: Paths.get(System.getProperty("java.io.tmpdir"),"ta1-cache");
+		Files.createDirectories(cache);
+		Path bin=cache.resolve(key(progs));
+		Path exe=Files.isExecutable(bin) ? bin : build(progs,cache,bin);
+		if (exe==null)
+			return false;
+		try {
+			new ProcessBuilder(exe.toString()).inheritIO().start().waitFor();
+		} finally {
+			if (exe!=bin)
+				Files.deleteIfExists(exe);
+		}
+		return true;
+	}
+
+	/**
+	 * Normalizes the programs and hashes them.
+	 * Line endings and surrounding whitespace do not change the key.
+	 * @param progs The source programs.
+	 * @return The key, as hex.
+	 */
+	public static String key(String[] progs) {
+		try {
+			MessageDigest md=MessageDigest.getInstance("SHA-256");
+			md.update(version.getBytes(StandardCharsets.UTF_8));
+			for (String prog: progs) {
+				md.update((byte)0);
+				md.update(prog.replace("\r\n","\n").strip().getBytes(StandardCharsets.UTF_8));
+			}
+			StringBuilder s=new StringBuilder();
+			for (byte b: md.digest())
+				s.append(String.format("%02x",b));
+			return s.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Generates C for the programs and compiles it.
+	 * Programs with syntax errors or illegal characters are built but not
+	 * cached, so their errors and warnings are reported on every run.
+	 * @return The binary to run (bin, or an uncached temporary), or null if gcc failed.
+	 */
+	private static Path build(String[] progs, Path cache, Path bin)
+			throws IOException, InterruptedException {
+		ByteArrayOutputStream warnings=new ByteArrayOutputStream();
+		Parser parser=new Parser(new PrintStream(warnings,true));
+		Environment env=new Environment();
+		List<Node> nodes=new ArrayList<>();
+		StringBuilder errors=new StringBuilder(); // in program order
+		for (String prog: progs) {
+			try {
+				Passes passes=new Passes().add("closedform",ClosedForm::optimize)
+					.add("types",(n,ps) -> { Types.infer(n,env); return n; });
+				Node node=passes.run(parser.parse(prog));
+				for (String v: passes.vars(node))
+					env.put(v,0);
+				nodes.add(node);
+			} catch (SyntaxException e) {
+				errors.append(warnings).append(e).append(System.lineSeparator());
+				warnings.reset();
+			}
+			errors.append(warnings);
+			warnings.reset();
+		}
+		Path c=Files.createTempFile(cache,"prog",".c");
+		Path tmp=Files.createTempFile(cache,"prog",".bin");
+		boolean keep=false;
+		try {
+			new Code(c.toString(),nodes,env);
+			Process gcc;
+			try {
+				gcc=new ProcessBuilder("gcc","-O2",c.toString(),"-o",tmp.toString())
+					.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+					.redirectError(ProcessBuilder.Redirect.DISCARD)
+					.start();
+			} catch (IOException e) {
+				return null; // no gcc
+			}
+			if (gcc.waitFor()!=0)
+				return null;
+			System.err.print(errors);
+			if (errors.length()>0) {
+				keep=true;
+				return tmp;
+			}
+			Files.move(tmp,bin,StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+			return bin;
+		} finally {
+			Files.deleteIfExists(c);
+			if (!keep)
+				Files.deleteIfExists(tmp);
+		}
+	}
+
+}
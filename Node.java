@@ -21,8 +21,18 @@ public abstract class Node {
 	/**
 	 * Generates C code for this node.
 	 * This is the "compiler" part of the translator.
+	 * @param out Where the C code is appended.
+	 */
+	public void code(Emitter out) {}
+
+	/**
+	 * Generates C code for this node, unindented.
 	 * @return A string representing the C code for this node.
 	 */
-	public String code() { return ""; }
+	public String code() {
+		StringBuilder s=new StringBuilder();
+		code(new Emitter(s,0));
+		return s.toString();
+	}
 
 }
@@ -1,18 +1,41 @@
 /**
  * Represents an addition or subtraction operator node (+ or -).
+ * Each operator is its own subclass, chosen once, by of(), so
+ * op() does the arithmetic without looking at the operator's text.
  */
-public class NodeAddop extends Node {
+public abstract class NodeAddop extends Node {
 
 	private String addop;
 
+	private NodeAddop(int pos, String addop) {
+		this.pos=pos;
+		this.addop=addop;
+	}
+
 	/**
 	 * Constructs an addop node.
 	 * @param pos The position in the source code.
 	 * @param addop The specific operator ("+" or "-").
+	 * @return The node.
+	 * @throws IllegalArgumentException If the operator is not recognized.
 	 */
-	public NodeAddop(int pos, String addop) {
-		this.pos=pos;
-		this.addop=addop;
+	public static NodeAddop of(int pos, String addop) {
+		switch (addop) {
+		case "+": return new Add(pos);
+		case "-": return new Sub(pos);
+		default: throw new IllegalArgumentException("bogus addop: "+addop);
+		}
+	}
+
+	/**
+	 * Constructs an addop node that compares its operator's text on every
+	 * op(), as all of them did before of(): Bench's baseline.
+	 * @param pos The position in the source code.
+	 * @param addop The specific operator ("+" or "-").
+	 * @return The node.
+	 */
+	static NodeAddop generic(int pos, String addop) {
+		return new Generic(pos,addop);
 	}
 
 	/**
@@ -20,20 +43,52 @@ public class NodeAddop extends Node {
 	 * @param o1 The first operand (double).
 	 * @param o2 The second operand (double).
 	 * @return The result of the operation (o1 + o2 or o1 - o2).
-	 * @throws EvalException If the operator is not recognized.
+	 * @throws EvalException If evaluation fails.
 	 */
-	public double op(double o1, double o2) throws EvalException {
-		if (addop.equals("+"))
-			return o1+o2;
-		if (addop.equals("-"))
-			return o1-o2;
-		throw new EvalException(pos,"bogus addop: "+addop);
-	}
+	public abstract double op(double o1, double o2) throws EvalException;
 
 	/**
-	 * Generates the C code for the operator.
-	 * @return "+" or "-".
+	 * Performs the arithmetic operation on integral operands (see Types).
+	 * @param o1 The first operand (long).
+	 * @param o2 The second operand (long).
+	 * @return The result of the operation (o1 + o2 or o1 - o2).
+	 */
+	public abstract long op(long o1, long o2);
+
+	/**
+	 * Generates the C code for the operator, "+" or "-".
+	 * @param out Where the C code is appended.
+	 */
+	public void code(Emitter out) { out.append(addop); }
+
+	/**
+	 * Returns the operator text.
+	 * @return The operator ("+" or "-").
 	 */
-	public String code() { return addop; }
+	public String getOp() { return addop; }
+
+	private static final class Generic extends NodeAddop {
+		private Generic(int pos, String addop) { super(pos,addop); }
+		public double op(double o1, double o2) throws EvalException {
+			if (getOp().equals("+"))
+				return o1+o2;
+			if (getOp().equals("-"))
+				return o1-o2;
+			throw new EvalException(pos,"bogus addop: "+getOp());
+		}
+		public long op(long o1, long o2) { return getOp().equals("+") ? o1+o2 : o1-o2; }
+	}
+
+	private static final class Add extends NodeAddop {
+		private Add(int pos) { super(pos,"+"); }
+		public double op(double o1, double o2) { return o1+o2; }
+		public long op(long o1, long o2) { return o1+o2; }
+	}
+
+	private static final class Sub extends NodeAddop {
+		private Sub(int pos) { super(pos,"-"); }
+		public double op(double o1, double o2) { return o1-o2; }
+		public long op(long o1, long o2) { return o1-o2; }
+	}
 
-}
\ No newline at end of file
+}
@@ -5,6 +5,7 @@ public class NodeAssn extends Node {
 
 	private String id;
 	private NodeExpr expr;
+	protected int slot=-1; // the variable's slot, once resolved
 
 	/**
 	 * Constructs an assignment node.
@@ -25,17 +26,37 @@ public class NodeAssn extends Node {
 	 */
 	public double eval(Environment env) throws EvalException {
 		// TA2: Just evaluate and store. Printing is handled by 'wr'.
-		double val = expr.eval(env);
-		return env.put(id, val);
+		double val = expr.isIntegral() ? expr.evalLong(env) : expr.eval(env);
+		return slot >= 0 ? env.put(slot, val) : env.put(id, val);
 	}
 
 	/**
 	 * Generates C code for the assignment.
-	 * @return A string of C code, e.g., "x=1+2;".
+	 * @param out Where the C code is appended, e.g., "x=1+2;".
 	 */
-	public String code() {
+	public void code(Emitter out) {
 		// TA2: Just generate the assignment. Printing is handled by 'wr'.
-		return id + "=" + expr.code() + ";";
+		out.append(id).append("=");
+		expr.code(out);
+		out.append(";").newline();
 	}
 
+	/**
+	 * Returns the variable being assigned.
+	 * @return The variable name.
+	 */
+	public String getId() { return id; }
+
+	/**
+	 * Returns the assigned expression.
+	 * @return The expression.
+	 */
+	public NodeExpr getExpr() { return expr; }
+
+	/**
+	 * Sets the variable's slot, so eval() need not look it up by name.
+	 * @param slot The slot, from Environment.slot().
+	 */
+	public void setSlot(int slot) { this.slot=slot; }
+
 }
\ No newline at end of file
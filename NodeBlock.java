@@ -38,21 +38,22 @@ public class NodeBlock extends Node {
 
 	/**
 	 * Generates C code for all statements in this block.
-	 * @return A string of concatenated C code.
+	 * @param out Where the C code is appended.
 	 */
 	@Override
-	public String code() {
-		String s = "";
-		for (NodeStmt stmt : stmts) {
-			s += stmt.code();
-		}
+	public void code(Emitter out) {
 		// Add curly braces for 'begin...end' blocks
 		// The top-level block doesn't need them, as they
 		// are inside main() already.
 		if (pos != 0) { // 'pos' is 0 for root node
-			return "{" + s + "}";
+			out.open();
+		}
+		for (NodeStmt stmt : stmts) {
+			stmt.code(out);
+		}
+		if (pos != 0) {
+			out.close().newline();
 		}
-		return s;
 	}
 
     /**
@@ -26,12 +26,48 @@ public class NodeBoolexpr extends Node {
 		return relop.op(v1, v2);
 	}
 
+	/**
+	 * Evaluates the boolean expression as a condition, for NodeIf
+	 * and NodeWhile, which branch on it without a double in between.
+	 * @param env The environment to evaluate in.
+	 * @return true if the relation holds.
+	 * @throws EvalException If evaluation fails.
+	 */
+	public boolean test(Environment env) throws EvalException {
+		double v1 = expr1.eval(env);
+		double v2 = expr2.eval(env);
+		return relop.test(v1, v2);
+	}
+
 	/**
 	 * Generates C code for the boolean expression.
-	 * @return A string of C code, e.g., "(x > 5.0)".
+	 * @param out Where the C code is appended, e.g., "(x>5.0)".
 	 */
 	@Override
-	public String code() {
-		return "(" + expr1.code() + relop.code() + expr2.code() + ")";
+	public void code(Emitter out) {
+		out.append("(");
+		expr1.code(out);
+		relop.code(out);
+		expr2.code(out);
+		out.append(")");
 	}
+
+	/**
+	 * Returns the left-hand expression.
+	 * @return The left-hand expression.
+	 */
+	public NodeExpr getExpr1() { return expr1; }
+
+	/**
+	 * Returns the relational operator.
+	 * @return The relop node.
+	 */
+	public NodeRelop getRelop() { return relop; }
+
+	/**
+	 * Returns the right-hand expression.
+	 * @return The right-hand expression.
+	 */
+	public NodeExpr getExpr2() { return expr2; }
+
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+/**
+ * Represents an assignment of one variable to another (e.g., "x = y"),
+ * which eval() does by reading the one and writing the other, rather
+ * than by walking the expression. See Fuse.
+ */
+public class NodeCopy extends NodeAssn {
+
+	private NodeFactId var;
+
+	/**
+	 * Constructs a copy node.
+	 * @param id The variable name to assign to.
+	 * @param expr The expression, a lone variable.
+	 * @param var The expression's read of the variable.
+	 */
+	public NodeCopy(String id, NodeExpr expr, NodeFactId var) {
+		super(id,expr);
+		this.var=var;
+	}
+
+	/**
+	 * Copies the variable.
+	 * @param env The environment to update.
+	 * @return The value copied.
+	 * @throws EvalException If the variable copied is not defined.
+	 */
+	public double eval(Environment env) throws EvalException {
+		double val=var.eval(env);
+		return slot>=0 ? env.put(slot,val) : env.put(getId(),val);
+	}
+
+}
@@ -0,0 +1,27 @@
+/**
+ * Represents the definition of a temporary introduced by Ssa
+ * (e.g., "_t1 = a*b"), which eval() runs as an assignment, and
+ * code() declares where it is defined, in the C block it is in.
+ */
+public class NodeDecl extends NodeAssn {
+
+	/**
+	 * Constructs a temporary's definition.
+	 * @param id The temporary's name, which starts with '_',
+	 * so it cannot clash with a variable of the program.
+	 * @param expr The expression to evaluate.
+	 */
+	public NodeDecl(String id, NodeExpr expr) {
+		super(id,expr);
+	}
+
+	/**
+	 * Generates C code for the definition.
+	 * @param out Where the C code is appended, e.g., "double _t1=a*b;".
+	 */
+	public void code(Emitter out) {
+		out.append("double ");
+		super.code(out);
+	}
+
+}
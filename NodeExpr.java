@@ -7,6 +7,7 @@ public class NodeExpr extends Node {
 	private NodeTerm term;
 	private NodeAddop addop;
 	private NodeExpr expr;
+	private boolean integral; // see Types
 
 	public NodeExpr(NodeTerm term, NodeAddop addop, NodeExpr expr) {
 		this.term=term;
@@ -14,20 +15,6 @@ public class NodeExpr extends Node {
 		this.expr=expr;
 	}
 
-	/**
-	 * Appends a new term/addop to the expression, maintaining
-	 * left-associativity for evaluation.
-	 * @param expr The expression part to append.
-	 */
-	public void append(NodeExpr expr) {
-		if (this.expr==null) {
-			this.addop=expr.addop;
-			this.expr=expr;
-			expr.addop=null;
-		} else
-			this.expr.append(expr);
-	}
-
 	/**
 	 * Evaluates the expression (handles left-associativity).
 	 * @param env The environment to evaluate in.
@@ -41,11 +28,76 @@ public class NodeExpr extends Node {
 	}
 
 	/**
-	 * Generates C code for the expression.
-	 * @return A string of C code.
+	 * Evaluates the expression, once Types has proven it integral,
+	 * with long arithmetic; the result is the same as eval()'s.
+	 * @param env The environment to evaluate in.
+	 * @return The long result of the expression.
+	 * @throws EvalException If evaluation fails.
+	 */
+	public long evalLong(Environment env) throws EvalException {
+		return expr==null
+			? term.evalLong(env)
+			: addop.op(expr.evalLong(env),term.evalLong(env));
+	}
+
+	/**
+	 * Generates C code for the expression. Where the chain's value stops
+	 * being integral (see Types), but both operands are, the rest is
+	 * converted to double, as C would otherwise compute it in longs.
+	 * @param out Where the C code is appended.
+	 */
+	public void code(Emitter out) {
+		// iterative, so a long chain is linear, not quadratic
+		java.util.ArrayDeque<NodeExpr> chain=new java.util.ArrayDeque<>();
+		for (NodeExpr n=this; n!=null; n=n.expr)
+			chain.push(n);
+		for (NodeExpr n: chain)
+			if (n.converts())
+				out.append("(double)(");
+		for (NodeExpr n: chain) {
+			if (n.converts())
+				out.append(")");
+			if (n.addop!=null)
+				n.addop.code(out);
+			n.term.code(out);
+		}
+	}
+
+	/**
+	 * Tells whether code() converts the chain before this operator to double.
 	 */
-	public String code() {
-		return (expr==null ? "" : expr.code()+addop.code())+term.code();
+	private boolean converts() {
+		return addop!=null && !integral && expr.integral && term.isIntegral();
 	}
 
+	/**
+	 * Tells whether the expression always holds an exact integer (see Types).
+	 * @return true if it is integral.
+	 */
+	public boolean isIntegral() { return integral; }
+
+	/**
+	 * Marks the expression as integral, or not.
+	 * @param integral true if Types has proven it integral.
+	 */
+	public void setIntegral(boolean integral) { this.integral=integral; }
+
+	/**
+	 * Returns the last (rightmost) term.
+	 * @return The term.
+	 */
+	public NodeTerm getTerm() { return term; }
+
+	/**
+	 * Returns the operator joining the rest of the expression to the last term.
+	 * @return The addop, or null.
+	 */
+	public NodeAddop getAddop() { return addop; }
+
+	/**
+	 * Returns the rest (left part) of the expression.
+	 * @return The left part, or null.
+	 */
+	public NodeExpr getExpr() { return expr; }
+
 }
\ No newline at end of file
@@ -3,4 +3,31 @@
  * A fact is the smallest unit in an expression, such as a number,
  * a variable, or a parenthesized expression.
  */
-public abstract class NodeFact extends Node {}
+public abstract class NodeFact extends Node {
+
+	private boolean integral; // see Types
+
+	/**
+	 * Evaluates the fact, once Types has proven it integral, with long
+	 * arithmetic; the result is the same as eval()'s.
+	 * @param env The environment to evaluate in.
+	 * @return The long result of the evaluation.
+	 * @throws EvalException If evaluation fails.
+	 */
+	public long evalLong(Environment env) throws EvalException {
+		return (long)eval(env);
+	}
+
+	/**
+	 * Tells whether the fact always holds an exact integer (see Types).
+	 * @return true if it is integral.
+	 */
+	public boolean isIntegral() { return integral; }
+
+	/**
+	 * Marks the fact as integral, or not.
+	 * @param integral true if Types has proven it integral.
+	 */
+	public void setIntegral(boolean integral) { this.integral=integral; }
+
+}
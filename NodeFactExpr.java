@@ -19,10 +19,30 @@ public class NodeFactExpr extends NodeFact {
 		return expr.eval(env);
 	}
 
+	/**
+	 * Evaluates the wrapped expression, in long arithmetic.
+	 * @param env The environment to evaluate in.
+	 * @return The long result of the expression.
+	 * @throws EvalException If the expression cannot be evaluated.
+	 */
+	public long evalLong(Environment env) throws EvalException {
+		return expr.evalLong(env);
+	}
+
 	/**
 	 * Generates C code for the parenthesized expression.
-	 * @return A string of C code, e.g., "(1+2)".
+	 * @param out Where the C code is appended, e.g., "(1+2)".
+	 */
+	public void code(Emitter out) {
+		out.append("(");
+		expr.code(out);
+		out.append(")");
+	}
+
+	/**
+	 * Returns the wrapped expression.
+	 * @return The expression.
 	 */
-	public String code() { return "("+expr.code()+")"; }
+	public NodeExpr getExpr() { return expr; }
 
 }
\ No newline at end of file
@@ -4,6 +4,7 @@
 public class NodeFactId extends NodeFact {
 
 	private String id;
+	private int slot=-1; // the variable's slot, once resolved
 
 	public NodeFactId(int pos, String id) {
 		this.pos=pos;
@@ -17,13 +18,25 @@ public class NodeFactId extends NodeFact {
 	 * @throws EvalException If the variable is not defined.
 	 */
 	public double eval(Environment env) throws EvalException {
-		return env.get(pos,id);
+		return slot>=0 ? env.get(pos,slot) : env.get(pos,id);
 	}
 
 	/**
-	 * Generates C code for the variable.
-	 * @return The variable name (e.g., "x").
+	 * Generates C code for the variable, its name (e.g., "x").
+	 * @param out Where the C code is appended.
 	 */
-	public String code() { return id; }
+	public void code(Emitter out) { out.append(id); }
+
+	/**
+	 * Returns the variable name.
+	 * @return The variable name.
+	 */
+	public String getId() { return id; }
+
+	/**
+	 * Sets the variable's slot, so eval() need not look it up by name.
+	 * @param slot The slot, from Environment.slot().
+	 */
+	public void setSlot(int slot) { this.slot=slot; }
 
 }
\ No newline at end of file
@@ -4,30 +4,49 @@
 public class NodeFactNum extends NodeFact {
 
 	private String num;
+	private double val; // decoded once, not on every eval()
 
 	public NodeFactNum(String num) {
 		this.num=num;
+		this.val=Double.parseDouble(num);
 	}
 
 	/**
-	 * Evaluates the node by parsing the number string as a double.
+	 * Evaluates the node, returning the number's value.
 	 * @param env The environment (unused).
 	 * @return The double value of the number.
 	 */
 	public double eval(Environment env) throws EvalException {
-		return Double.parseDouble(num);
+		return val;
 	}
 
 	/**
 	 * Generates C code for the number literal.
-	 * Appends ".0" to integers to force floating-point division in C.
-	 * @return The number as a string (e.g., "5.0" or "3.14").
+	 * Appends ".0" to integers to force floating-point division in C,
+	 * unless the literal is integral (see Types), in long arithmetic,
+	 * which C's int, the type of an unsuffixed integer, may overflow.
+	 * @param out Where the C code is appended (e.g., "5.0", "3.14", or "5L").
 	 */
-	public String code() {
-		if (num.contains(".")) {
-			return num;
+	public void code(Emitter out) {
+		if (isIntegral()) {
+			out.append(Long.toString((long) val)).append("L");
+		} else if (num.contains(".")) {
+			out.append(num);
+		} else {
+			out.append(num).append(".0");
 		}
-		return num + ".0";
 	}
 
+	/**
+	 * Returns the literal text.
+	 * @return The literal (e.g., "3.14").
+	 */
+	public String getNum() { return num; }
+
+	/**
+	 * Returns the literal's value.
+	 * @return The value (e.g., 3.14).
+	 */
+	public double getVal() { return val; }
+
 }
\ No newline at end of file
@@ -27,11 +27,33 @@ public class NodeFactUnary extends NodeFact {
 	}
 
 	/**
-	 * Generates C code for the unary minus expression.
-	 * @return A string of C code, e.g., "(-fact.code())".
+	 * Evaluates the underlying fact and returns its negation, in long arithmetic.
+	 * @param env The environment to evaluate in.
+	 * @return The negated long value.
+	 * @throws EvalException if the underlying fact cannot be evaluated.
 	 */
-	public String code() {
-		return "(-" + fact.code() + ")"; // Add parens for safety
+	@Override
+	public long evalLong(Environment env) throws EvalException {
+		return -fact.evalLong(env);
 	}
 
+	/**
+	 * Generates C code for the unary minus expression. An integral
+	 * fact is negated as a double, unless the negation is integral too,
+	 * as a long cannot be -0.
+	 * @param out Where the C code is appended, e.g., "(-x)".
+	 */
+	public void code(Emitter out) {
+		String cast = fact.isIntegral() && !isIntegral() ? "(double)" : "";
+		out.append("(-").append(cast); // Add parens for safety
+		fact.code(out);
+		out.append(")");
+	}
+
+	/**
+	 * Returns the negated fact.
+	 * @return The fact.
+	 */
+	public NodeFact getFact() { return fact; }
+
 }
\ No newline at end of file
@@ -21,8 +21,7 @@ public class NodeIf extends Node {
 	 */
 	@Override
 	public double eval(Environment env) throws EvalException {
-		// 1.0 is true, 0.0 is false
-		if (boolexpr.eval(env) == 1.0) {
+		if (boolexpr.test(env)) {
 			return thenStmt.eval(env);
 		} else if (elseStmt != null) {
 			return elseStmt.eval(env);
@@ -32,14 +31,39 @@ public class NodeIf extends Node {
 
 	/**
 	 * Generates C code for the if-then-else statement.
-	 * @return A string of C code.
+	 * @param out Where the C code is appended.
 	 */
 	@Override
-	public String code() {
-		String s = "if " + boolexpr.code() + " { " + thenStmt.code() + " }";
+	public void code(Emitter out) {
+		out.append("if ");
+		boolexpr.code(out);
+		out.append(" ").open();
+		thenStmt.code(out);
+		out.close();
 		if (elseStmt != null) {
-			s += " else { " + elseStmt.code() + " }";
+			out.append(" else ").open();
+			elseStmt.code(out);
+			out.close();
 		}
-		return s;
+		out.newline();
 	}
+
+	/**
+	 * Returns the condition.
+	 * @return The condition.
+	 */
+	public NodeBoolexpr getBoolexpr() { return boolexpr; }
+
+	/**
+	 * Returns the statement run when the condition holds.
+	 * @return The then-statement.
+	 */
+	public NodeStmt getThenStmt() { return thenStmt; }
+
+	/**
+	 * Returns the statement run when the condition fails.
+	 * @return The else-statement, or null.
+	 */
+	public NodeStmt getElseStmt() { return elseStmt; }
+
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+/**
+ * Represents an assignment that steps a variable by a constant
+ * (e.g., "x = x + 1" or "x = x - 1"), which eval() does with one
+ * read-modify-write of its slot, rather than by walking the expression.
+ * See Fuse.
+ */
+public class NodeIncr extends NodeAssn {
+
+	private NodeFactId var;
+	private double delta;
+
+	/**
+	 * Constructs an increment node.
+	 * @param id The variable name to assign to.
+	 * @param expr The expression, "id + c" or "id - c".
+	 * @param var The expression's read of the variable.
+	 * @param delta The value added: c, or -c, which gives the same
+	 * double as subtracting c.
+	 */
+	public NodeIncr(String id, NodeExpr expr, NodeFactId var, double delta) {
+		super(id,expr);
+		this.var=var;
+		this.delta=delta;
+	}
+
+	/**
+	 * Adds the constant to the variable.
+	 * @param env The environment to update.
+	 * @return The variable's new value.
+	 * @throws EvalException If the variable is not defined.
+	 */
+	public double eval(Environment env) throws EvalException {
+		return env.add(var.pos,slot>=0 ? slot : env.slot(getId()),delta);
+	}
+
+}
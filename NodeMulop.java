@@ -1,34 +1,82 @@
 /**
  * Represents a multiplication or division operator node (* or /).
+ * Each operator is its own subclass, chosen once, by of().
  */
-public class NodeMulop extends Node {
+public abstract class NodeMulop extends Node {
 
 	private String mulop;
 
-	public NodeMulop(int pos, String mulop) {
+	private NodeMulop(int pos, String mulop) {
 		this.pos=pos;
 		this.mulop=mulop;
 	}
 
+	/**
+	 * Constructs a mulop node.
+	 * @param pos The position in the source code.
+	 * @param mulop The specific operator ("*" or "/").
+	 * @return The node.
+	 * @throws IllegalArgumentException If the operator is not recognized.
+	 */
+	public static NodeMulop of(int pos, String mulop) {
+		switch (mulop) {
+		case "*": return new Mul(pos);
+		case "/": return new Div(pos);
+		default: throw new IllegalArgumentException("bogus mulop: "+mulop);
+		}
+	}
+
+	/**
+	 * Constructs a mulop node that compares its operator's text on every
+	 * op(), as all of them did before of(): Bench's baseline.
+	 * @param pos The position in the source code.
+	 * @param mulop The specific operator ("*" or "/").
+	 * @return The node.
+	 */
+	static NodeMulop generic(int pos, String mulop) {
+		return new Generic(pos,mulop);
+	}
+
 	/**
 	 * Performs the arithmetic operation.
 	 * @param o1 The first operand (double).
 	 * @param o2 The second operand (double).
 	 * @return The result of the operation (o1 * o2 or o1 / o2).
-	 * @throws EvalException If the operator is not recognized.
+	 * @throws EvalException If evaluation fails.
 	 */
-	public double op(double o1, double o2) throws EvalException {
-		if (mulop.equals("*"))
-			return o1*o2;
-		if (mulop.equals("/"))
-			return o1/o2;
-		throw new EvalException(pos,"bogus mulop: "+mulop);
-	}
+	public abstract double op(double o1, double o2) throws EvalException;
 
 	/**
-	 * Generates the C code for the operator.
-	 * @return "*" or "/".
+	 * Generates the C code for the operator, "*" or "/".
+	 * @param out Where the C code is appended.
 	 */
-	public String code() { return mulop; }
+	public void code(Emitter out) { out.append(mulop); }
+
+	/**
+	 * Returns the operator text.
+	 * @return The operator ("*" or "/").
+	 */
+	public String getOp() { return mulop; }
+
+	private static final class Generic extends NodeMulop {
+		private Generic(int pos, String mulop) { super(pos,mulop); }
+		public double op(double o1, double o2) throws EvalException {
+			if (getOp().equals("*"))
+				return o1*o2;
+			if (getOp().equals("/"))
+				return o1/o2;
+			throw new EvalException(pos,"bogus mulop: "+getOp());
+		}
+	}
+
+	private static final class Mul extends NodeMulop {
+		private Mul(int pos) { super(pos,"*"); }
+		public double op(double o1, double o2) { return o1*o2; }
+	}
+
+	private static final class Div extends NodeMulop {
+		private Div(int pos) { super(pos,"/"); }
+		public double op(double o1, double o2) { return o1/o2; }
+	}
 
-}
\ No newline at end of file
+}
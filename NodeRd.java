@@ -1,13 +1,10 @@
-import java.util.Scanner;
-
 /**
  * Represents a 'rd' (read) statement.
  */
 public class NodeRd extends Node {
 
 	private String id;
-	// Static scanner for System.in, as recommended by TA2
-	private static Scanner sysIn = new Scanner(System.in);
+	private int slot=-1; // the variable's slot, once resolved
 
 	public NodeRd(String id) {
 		this.id = id;
@@ -15,24 +12,42 @@ public class NodeRd extends Node {
 
 	/**
 	 * Evaluates the 'rd' statement by reading a double from
-	 * System.in and storing it in the environment.
+	 * the environment's input and storing it in the environment.
 	 * @param env The environment to store the variable in.
 	 * @return The double value that was read.
 	 * @throws EvalException (Not thrown here, but part of signature).
 	 */
 	@Override
 	public double eval(Environment env) throws EvalException {
-		double val = sysIn.nextDouble();
-		env.put(id, val);
+		double val = env.read();
+		if (slot >= 0)
+			env.put(slot, val);
+		else
+			env.put(id, val);
 		return val;
 	}
 
 	/**
 	 * Generates C code for the 'rd' statement.
-	 * @return A string of C code, e.g., "scanf(\"%lf\", &x);".
+	 * It calls _rd(), from Code's prologue, which reads as
+	 * scanf("%lf") would, from a buffer.
+	 * @param out Where the C code is appended, e.g., "_rd(&x);".
 	 */
 	@Override
-	public String code() {
-		return "scanf(\"%lf\", &" + id + ");";
+	public void code(Emitter out) {
+		out.append("_rd(&").append(id).append(");").newline();
 	}
+
+	/**
+	 * Returns the variable being read.
+	 * @return The variable name.
+	 */
+	public String getId() { return id; }
+
+	/**
+	 * Sets the variable's slot, so eval() need not look it up by name.
+	 * @param slot The slot, from Environment.slot().
+	 */
+	public void setSlot(int slot) { this.slot=slot; }
+
 }
\ No newline at end of file
@@ -1,46 +1,125 @@
 /**
  * Represents a relational operator (e.g., "<", "==").
+ * Each operator is its own subclass, chosen once, by of(), whose
+ * test() compares without looking at the operator's text.
  */
-public class NodeRelop extends Node {
+public abstract class NodeRelop extends Node {
+
+	// Use a small tolerance for double comparison
+	private static final double epsilon = 1e-9;
 
 	private String relop;
 
-	public NodeRelop(int pos, String relop) {
+	private NodeRelop(int pos, String relop) {
 		this.pos = pos;
 		this.relop = relop;
 	}
 
+	/**
+	 * Constructs a relop node.
+	 * @param pos The position in the source code.
+	 * @param relop The specific operator (e.g., "<" or "<>").
+	 * @return The node.
+	 * @throws IllegalArgumentException If the operator is not recognized.
+	 */
+	public static NodeRelop of(int pos, String relop) {
+		switch (relop) {
+		case "<":  return new Lt(pos);
+		case "<=": return new Le(pos);
+		case ">":  return new Gt(pos);
+		case ">=": return new Ge(pos);
+		case "<>": return new Ne(pos);
+		case "==": return new Eq(pos);
+		default: throw new IllegalArgumentException("bogus relop: " + relop);
+		}
+	}
+
+	/**
+	 * Constructs a relop node that compares its operator's text on every
+	 * test(), as all of them did before of(): Bench's baseline.
+	 * @param pos The position in the source code.
+	 * @param relop The specific operator (e.g., "<" or "<>").
+	 * @return The node.
+	 */
+	static NodeRelop generic(int pos, String relop) {
+		return new Generic(pos, relop);
+	}
+
+	/**
+	 * Performs the relational operation.
+	 * @param o1 The first operand.
+	 * @param o2 The second operand.
+	 * @return true if the relation holds.
+	 */
+	public abstract boolean test(double o1, double o2);
+
 	/**
 	 * Performs the relational operation.
 	 * @param o1 The first operand.
 	 * @param o2 The second operand.
 	 * @return 1.0 for true, 0.0 for false.
-	 * @throws EvalException If the operator is not recognized.
+	 * @throws EvalException If evaluation fails.
 	 */
 	public double op(double o1, double o2) throws EvalException {
-		// Use a small tolerance for double comparison
-		double epsilon = 1e-9;
-
-		if (relop.equals("<"))  return (o1 < o2) ? 1.0 : 0.0;
-		if (relop.equals("<=")) return (o1 <= o2) ? 1.0 : 0.0;
-		if (relop.equals(">"))  return (o1 > o2) ? 1.0 : 0.0;
-		if (relop.equals(">=")) return (o1 >= o2) ? 1.0 : 0.0;
-		if (relop.equals("<>")) return (Math.abs(o1 - o2) > epsilon) ? 1.0 : 0.0; // Not equal
-		if (relop.equals("==")) return (Math.abs(o1 - o2) < epsilon) ? 1.0 : 0.0; // Equal
-
-		throw new EvalException(pos, "bogus relop: " + relop);
+		return test(o1, o2) ? 1.0 : 0.0;
 	}
 
 	/**
 	 * Generates the C code for the operator.
-	 * @return The operator as a string.
+	 * @param out Where the C code is appended.
 	 */
 	@Override
-	public String code() {
+	public void code(Emitter out) {
 		// C uses != instead of <>
-		if (relop.equals("<>")) {
-			return "!=";
+		out.append(relop.equals("<>") ? "!=" : relop);
+	}
+
+	/**
+	 * Returns the operator text.
+	 * @return The operator (e.g., "<" or "<>").
+	 */
+	public String getOp() { return relop; }
+
+	private static final class Generic extends NodeRelop {
+		private Generic(int pos, String relop) { super(pos, relop); }
+		public boolean test(double o1, double o2) {
+			if (getOp().equals("<"))  return o1 < o2;
+			if (getOp().equals("<=")) return o1 <= o2;
+			if (getOp().equals(">"))  return o1 > o2;
+			if (getOp().equals(">=")) return o1 >= o2;
+			if (getOp().equals("<>")) return Math.abs(o1 - o2) > epsilon;
+			return Math.abs(o1 - o2) < epsilon; // ==
 		}
-		return relop;
 	}
-}
\ No newline at end of file
+
+	private static final class Lt extends NodeRelop {
+		private Lt(int pos) { super(pos, "<"); }
+		public boolean test(double o1, double o2) { return o1 < o2; }
+	}
+
+	private static final class Le extends NodeRelop {
+		private Le(int pos) { super(pos, "<="); }
+		public boolean test(double o1, double o2) { return o1 <= o2; }
+	}
+
+	private static final class Gt extends NodeRelop {
+		private Gt(int pos) { super(pos, ">"); }
+		public boolean test(double o1, double o2) { return o1 > o2; }
+	}
+
+	private static final class Ge extends NodeRelop {
+		private Ge(int pos) { super(pos, ">="); }
+		public boolean test(double o1, double o2) { return o1 >= o2; }
+	}
+
+	private static final class Ne extends NodeRelop {
+		private Ne(int pos) { super(pos, "<>"); }
+		public boolean test(double o1, double o2) { return Math.abs(o1 - o2) > epsilon; }
+	}
+
+	private static final class Eq extends NodeRelop {
+		private Eq(int pos) { super(pos, "=="); }
+		public boolean test(double o1, double o2) { return Math.abs(o1 - o2) < epsilon; }
+	}
+
+}
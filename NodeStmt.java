@@ -40,17 +40,29 @@ public class NodeStmt extends Node {
 
 	/**
 	 * Generates C code for the specific statement this node holds.
-	 * @return C code for the statement.
+	 * @param out Where the C code is appended.
 	 */
-	public String code() {
-		if (assn != null) return assn.code();
-		if (rd != null) return rd.code();
-		if (wr != null) return wr.code();
-		if (ifStmt != null) return ifStmt.code();
-		if (whileStmt != null) return whileStmt.code();
-		if (block != null) return block.code();
-		// Should not happen
-		return "";
+	public void code(Emitter out) {
+		if (assn != null) assn.code(out);
+		else if (rd != null) rd.code(out);
+		else if (wr != null) wr.code(out);
+		else if (ifStmt != null) ifStmt.code(out);
+		else if (whileStmt != null) whileStmt.code(out);
+		else if (block != null) block.code(out);
+		// else should not happen
+	}
+
+	/**
+	 * Returns the specific statement this node holds.
+	 * @return The held Assn, Rd, Wr, If, While or Block node.
+	 */
+	public Node getStmt() {
+		if (assn != null) return assn;
+		if (rd != null) return rd;
+		if (wr != null) return wr;
+		if (ifStmt != null) return ifStmt;
+		if (whileStmt != null) return whileStmt;
+		return block;
 	}
 
 }
\ No newline at end of file
@@ -7,6 +7,7 @@ public class NodeTerm extends Node {
 	private NodeFact fact;
 	private NodeMulop mulop;
 	private NodeTerm term;
+	private boolean integral; // see Types
 
 	public NodeTerm(NodeFact fact, NodeMulop mulop, NodeTerm term) {
 		this.fact=fact;
@@ -14,20 +15,6 @@ public class NodeTerm extends Node {
 		this.term=term;
 	}
 
-	/**
-	 * Appends a new fact/mulop to the term, maintaining
-	 * left-associativity for evaluation.
-	 * @param term The term part to append.
-	 */
-	public void append(NodeTerm term) {
-		if (this.term==null) {
-			this.mulop=term.mulop;
-			this.term=term;
-			term.mulop=null;
-		} else
-			this.term.append(term);
-	}
-
 	/**
 	 * Evaluates the term (handles left-associativity).
 	 * @param env The environment to evaluate in.
@@ -41,11 +28,76 @@ public class NodeTerm extends Node {
 	}
 
 	/**
-	 * Generates C code for the term.
-	 * @return A string of C code.
+	 * Evaluates the term, once Types has proven it integral, with long
+	 * arithmetic; the result is the same as eval()'s.
+	 * @param env The environment to evaluate in.
+	 * @return The long result of the term.
+	 * @throws EvalException If evaluation fails.
+	 */
+	public long evalLong(Environment env) throws EvalException {
+		return term==null
+			? fact.evalLong(env)
+			: term.evalLong(env)*fact.evalLong(env); // an integral term has no '/'
+	}
+
+	/**
+	 * Generates C code for the term. Where the chain's value stops
+	 * being integral (see Types), e.g., at a '/', but both operands are,
+	 * the rest is converted to double, as C would otherwise compute it in longs.
+	 * @param out Where the C code is appended.
+	 */
+	public void code(Emitter out) {
+		// iterative, so a long chain is linear, not quadratic
+		java.util.ArrayDeque<NodeTerm> chain=new java.util.ArrayDeque<>();
+		for (NodeTerm n=this; n!=null; n=n.term)
+			chain.push(n);
+		for (NodeTerm n: chain)
+			if (n.converts())
+				out.append("(double)(");
+		for (NodeTerm n: chain) {
+			if (n.converts())
+				out.append(")");
+			if (n.mulop!=null)
+				n.mulop.code(out);
+			n.fact.code(out);
+		}
+	}
+
+	/**
+	 * Tells whether code() converts the chain before this operator to double.
 	 */
-	public String code() {
-		return (term==null ? "" : term.code()+mulop.code())+fact.code();
+	private boolean converts() {
+		return mulop!=null && !integral && term.integral && fact.isIntegral();
 	}
 
+	/**
+	 * Tells whether the term always holds an exact integer (see Types).
+	 * @return true if it is integral.
+	 */
+	public boolean isIntegral() { return integral; }
+
+	/**
+	 * Marks the term as integral, or not.
+	 * @param integral true if Types has proven it integral.
+	 */
+	public void setIntegral(boolean integral) { this.integral=integral; }
+
+	/**
+	 * Returns the last (rightmost) fact.
+	 * @return The fact.
+	 */
+	public NodeFact getFact() { return fact; }
+
+	/**
+	 * Returns the operator joining the rest of the term to the last fact.
+	 * @return The mulop, or null.
+	 */
+	public NodeMulop getMulop() { return mulop; }
+
+	/**
+	 * Returns the rest (left part) of the term.
+	 * @return The left part, or null.
+	 */
+	public NodeTerm getTerm() { return term; }
+
 }
\ No newline at end of file
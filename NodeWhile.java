@@ -19,8 +19,7 @@ public class NodeWhile extends Node {
 	 */
 	@Override
 	public double eval(Environment env) throws EvalException {
-		// 1.0 is true, 0.0 is false
-		while (boolexpr.eval(env) == 1.0) {
+		while (boolexpr.test(env)) {
 			stmt.eval(env);
 		}
 		return 0.0; // Loops don't return a value
@@ -28,10 +27,27 @@ public class NodeWhile extends Node {
 
 	/**
 	 * Generates C code for the while loop.
-	 * @return A string of C code.
+	 * @param out Where the C code is appended.
 	 */
 	@Override
-	public String code() {
-		return "while " + boolexpr.code() + " { " + stmt.code() + " }";
+	public void code(Emitter out) {
+		out.append("while ");
+		boolexpr.code(out);
+		out.append(" ").open();
+		stmt.code(out);
+		out.close().newline();
 	}
+
+	/**
+	 * Returns the loop condition.
+	 * @return The condition.
+	 */
+	public NodeBoolexpr getBoolexpr() { return boolexpr; }
+
+	/**
+	 * Returns the loop body.
+	 * @return The body statement.
+	 */
+	public NodeStmt getStmt() { return stmt; }
+
 }
\ No newline at end of file
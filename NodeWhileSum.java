@@ -0,0 +1,139 @@
+/**
+ * Represents a counting loop whose body only adds constants to
+ * variables (e.g., "while x > 0 do begin y = y + 2; x = x - 1 end"),
+ * which eval() and code() run in closed form: the trip count follows
+ * from the condition and its variable's step, and each variable
+ * gains the trip count times its step. See ClosedForm.
+ * <p>
+ * The closed form is taken only if it is exactly what iterating
+ * would compute: the variables, and the bound, must be integers,
+ * not -0, and stay within 2^53, so every sum in the body is exact.
+ * Otherwise, or if the loop never ends, the loop runs as usual.
+ */
+public class NodeWhileSum extends NodeWhile {
+
+	/**
+	 * The relops of a trip count, as _trips() in the C prologue numbers them.
+	 */
+	static final String[] relops={ "<", "<=", ">", ">=", "<>" };
+
+	private static final long exact=1L<<53;
+
+	private boolean left;
+	private String relop;
+	private String[] vars;
+	private long[] steps;
+	private long[] spans;
+	private int var;
+
+	/**
+	 * Constructs a summarized while node.
+	 * @param boolexpr The condition, "id relop e" or "e relop id",
+	 * with e not reading vars.
+	 * @param stmt The body.
+	 * @param left Whether the variable is the condition's left side.
+	 * @param vars The variables the body adds to, the condition's among them.
+	 * @param steps What an iteration adds to each variable.
+	 * @param spans The sum of the magnitudes of an iteration's additions
+	 * to each variable, which bounds their values within an iteration.
+	 */
+	public NodeWhileSum(NodeBoolexpr boolexpr, NodeStmt stmt, boolean left,
+			String[] vars, long[] steps, long[] spans) {
+		super(boolexpr,stmt);
+		this.left=left;
+		String op=boolexpr.getRelop().getOp();
+		this.relop=left ? op : op.equals("<") ? ">" : op.equals("<=") ? ">="
+			: op.equals(">") ? "<" : op.equals(">=") ? "<=" : op;
+		this.vars=vars;
+		this.steps=steps;
+		this.spans=spans;
+		String id=((NodeFactId)(left ? boolexpr.getExpr1() : boolexpr.getExpr2())
+			.getTerm().getFact()).getId();
+		for (int i=0; i<vars.length; i++)
+			if (vars[i].equals(id))
+				var=i;
+	}
+
+	/**
+	 * Evaluates the 'while' loop.
+	 * @param env The environment to evaluate in.
+	 * @return 0.0.
+	 * @throws EvalException If evaluation fails.
+	 */
+	@Override
+	public double eval(Environment env) throws EvalException {
+		NodeBoolexpr cond=getBoolexpr();
+		double o1=cond.getExpr1().eval(env);
+		double o2=cond.getExpr2().eval(env);
+		long n=left ? trips(o1,o2,steps[var],relop) : trips(o2,o1,steps[var],relop);
+		if (n<=0) // untaken, or the loop runs as usual, retesting
+			return n==0 ? 0.0 : super.eval(env);
+		int[] slots=new int[vars.length];
+		for (int i=0; i<vars.length; i++) {
+			slots[i]=env.slot(vars[i]);
+			if (!env.has(vars[i]) || !fits(env.get(pos,slots[i]),n,spans[i]))
+				return super.eval(env);
+		}
+		for (int i=0; i<vars.length; i++)
+			env.put(slots[i],(double)((long)env.get(pos,slots[i])+n*steps[i]));
+		return 0.0;
+	}
+
+	/**
+	 * Generates C code for the loop: the closed form, guarded by
+	 * _trips() and _fits() from the prologue, else the loop.
+	 * @param out Where the C code is appended.
+	 */
+	@Override
+	public void code(Emitter out) {
+		NodeBoolexpr cond=getBoolexpr();
+		int r=0;
+		while (!relops[r].equals(relop))
+			r++;
+		out.open().append("long long _n=_trips(");
+		(left ? cond.getExpr1() : cond.getExpr2()).code(out);
+		out.append(",");
+		(left ? cond.getExpr2() : cond.getExpr1()).code(out);
+		out.append(","+steps[var]+"LL,"+r+");").newline().append("if (_n>=0");
+		for (int i=0; i<vars.length; i++)
+			out.append(" && _fits("+vars[i]+",_n,"+spans[i]+"LL)");
+		out.append(") ").open();
+		for (int i=0; i<vars.length; i++)
+			out.append(vars[i]+"="+vars[i]+"+(double)(_n*"+steps[i]+"LL);").newline();
+		out.close().append(" else ");
+		super.code(out);
+		out.close().newline();
+	}
+
+	/**
+	 * Counts the iterations of "while x relop b do x = x + step".
+	 * @return The count, or -1 if x or b are not exact integers,
+	 * or the loop does not end.
+	 */
+	static long trips(double x, double b, long step, String relop) {
+		if (!(Math.abs(x)<=exact && Math.abs(b)<=exact) || x!=Math.rint(x) || b!=Math.rint(b))
+			return -1;
+		long lx=(long)x;
+		long lb=(long)b;
+		switch (relop) {
+		case "<":  return lx>=lb ? 0 : step>0 ? (lb-lx+step-1)/step : -1;
+		case "<=": return lx>lb ? 0 : step>0 ? (lb-lx)/step+1 : -1;
+		case ">":  return lx<=lb ? 0 : step<0 ? (lx-lb-step-1)/-step : -1;
+		case ">=": return lx<lb ? 0 : step<0 ? (lx-lb)/-step+1 : -1;
+		case "<>": return lx==lb ? 0 : step!=0 && (lb-lx)%step==0 && (lb-lx)/step>0 ? (lb-lx)/step : -1;
+		default:   return -1;
+		}
+	}
+
+	/**
+	 * Tells whether a variable stays an exact integer for n iterations.
+	 * @param v The variable's value.
+	 * @param n The iterations.
+	 * @param span The magnitude of an iteration's additions.
+	 */
+	static boolean fits(double v, long n, long span) {
+		return Math.abs(v)<=exact && v==Math.rint(v) && !(v==0 && 1/v<0)
+			&& (span==0 || n<=(exact-(long)Math.abs(v))/span);
+	}
+
+}
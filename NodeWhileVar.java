@@ -0,0 +1,41 @@
+/**
+ * Represents a while-do statement whose condition compares a variable
+ * to a constant (e.g., "while x > 0 do ..."), which eval() tests by
+ * reading the variable and comparing, rather than by walking both
+ * expressions. See Fuse.
+ */
+public class NodeWhileVar extends NodeWhile {
+
+	private NodeFactId var;
+	private NodeRelop relop;
+	private double val;
+
+	/**
+	 * Constructs a while node.
+	 * @param boolexpr The condition, "id relop c".
+	 * @param stmt The body.
+	 * @param var The condition's read of the variable.
+	 * @param val The constant, c.
+	 */
+	public NodeWhileVar(NodeBoolexpr boolexpr, NodeStmt stmt, NodeFactId var, double val) {
+		super(boolexpr,stmt);
+		this.var=var;
+		this.relop=boolexpr.getRelop();
+		this.val=val;
+	}
+
+	/**
+	 * Evaluates the 'while' loop.
+	 * @param env The environment to evaluate in.
+	 * @return 0.0.
+	 * @throws EvalException If evaluation fails.
+	 */
+	@Override
+	public double eval(Environment env) throws EvalException {
+		NodeStmt stmt=getStmt();
+		while (relop.test(var.eval(env),val))
+			stmt.eval(env);
+		return 0.0;
+	}
+
+}
@@ -12,32 +12,38 @@ public class NodeWr extends Node {
 	}
 
 	/**
-	 * Evaluates the expression and prints the result to standard output.
-	 * It attempts to print whole numbers as integers (e.g., "3")
-	 * and fractional numbers as doubles (e.g., "3.5").
+	 * Evaluates the expression and prints the result to the environment's output.
 	 * @param env The environment to evaluate in.
 	 * @return The double result of the expression.
 	 * @throws EvalException If the expression cannot be evaluated.
 	 */
 	public double eval(Environment env) throws EvalException {
+		if (expr.isIntegral()) { // whole, so printed as is
+			long l = expr.evalLong(env);
+			env.write(l);
+			return l;
+		}
 		double d = expr.eval(env);
-		long i = (long) d;
-		if (i == d) // Check if it's a whole number
-			System.out.println(i);
-		else
-			System.out.println(d);
+		env.write(d);
 		return d;
 	}
 
 	/**
 	 * Generates C code to print the result of the expression.
-	 * @return A string of C code, e.g., "printf(\"%g\n\",(double)(expr.code()));".
+	 * It calls _wr(), from Code's prologue, which buffers what
+	 * printf("%g\n") would print.
+	 * @param out Where the C code is appended, e.g., "_wr((double)(x));".
 	 */
-	public String code() {
-		return "printf(\"%g\\n\","
-			+"(double)("
-			+expr.code()
-			+"));";
+	public void code(Emitter out) {
+		out.append("_wr((double)(");
+		expr.code(out);
+		out.append("));").newline();
 	}
 
+	/**
+	 * Returns the expression being printed.
+	 * @return The expression.
+	 */
+	public NodeExpr getExpr() { return expr; }
+
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An optimization pass, run between parsing and eval() or code(),
+ * which returns an equivalent tree: the same output, the same errors
+ * (at the same positions), and, in C, the same doubles.
+ * <ul>
+ * <li>Constant subexpressions are folded into literals, with the
+ * operators' own op(), so the result is what eval() computes; a
+ * non-finite result is left unfolded. Chains are left-associative, so
+ * only a chain's constant prefix folds: in x+2+3, 2+3 is never computed.</li>
+ * <li>IEEE-safe identities are applied: x*1, 1*x, x/1, and x-0 are x.
+ * (x+0 and x*0 are not: -0+0 is 0, and 0*NaN is NaN.)</li>
+ * <li>Parentheses around a single fact are dropped.</li>
+ * <li>A NodeIf with a constant condition becomes the branch taken,
+ * and a NodeWhile whose condition is constantly false is removed.</li>
+ * </ul>
+ * Literals are decoded once, when NodeFactNum is constructed.
+ * Variables are never folded, so an undefined one is still reported.
+ */
+public class Optimizer {
+
+	/**
+	 * Optimizes a program.
+	 * @param n The root of the program's AST.
+	 * @return The root of the optimized AST.
+	 */
+	public static Node optimize(Node n) {
+		return n instanceof NodeBlock ? block((NodeBlock)n) : n;
+	}
+
+	private static NodeBlock block(NodeBlock b) {
+		NodeBlock block=new NodeBlock();
+		block.pos=b.pos;
+		for (NodeStmt s: b.getStmts()) {
+			NodeStmt stmt=stmt(s);
+			if (stmt!=null)
+				block.addStmt(stmt);
+		}
+		return block;
+	}
+
+	/**
+	 * Optimizes a statement.
+	 * @return The statement, or null if it does nothing.
+	 */
+	private static NodeStmt stmt(NodeStmt s) {
+		Node n=s.getStmt();
+		NodeStmt stmt;
+		if (n instanceof NodeAssn) {
+			NodeAssn a=(NodeAssn)n;
+			NodeAssn assn=new NodeAssn(a.getId(),expr(a.getExpr()));
+			assn.pos=a.pos;
+			stmt=new NodeStmt(assn);
+		} else if (n instanceof NodeRd)
+			stmt=s;
+		else if (n instanceof NodeWr) {
+			NodeWr w=new NodeWr(expr(((NodeWr)n).getExpr()));
+			w.pos=n.pos;
+			stmt=new NodeStmt(w);
+		} else if (n instanceof NodeIf) {
+			NodeIf i=(NodeIf)n;
+			NodeBoolexpr cond=boolexpr(i.getBoolexpr());
+			Boolean known=constant(cond);
+			if (known!=null)
+				return known
+					? stmt(i.getThenStmt())
+					: i.getElseStmt()==null ? null : stmt(i.getElseStmt());
+			NodeIf ifStmt=new NodeIf(cond,body(i.getThenStmt()),
+				i.getElseStmt()==null ? null : body(i.getElseStmt()));
+			ifStmt.pos=i.pos;
+			stmt=new NodeStmt(ifStmt);
+		} else if (n instanceof NodeWhile) {
+			NodeWhile w=(NodeWhile)n;
+			NodeBoolexpr cond=boolexpr(w.getBoolexpr());
+			if (Boolean.FALSE.equals(constant(cond)))
+				return null;
+			NodeWhile whileStmt=new NodeWhile(cond,body(w.getStmt()));
+			whileStmt.pos=w.pos;
+			stmt=new NodeStmt(whileStmt);
+		} else
+			stmt=new NodeStmt(block((NodeBlock)n));
+		stmt.pos=s.pos;
+		return stmt;
+	}
+
+	/**
+	 * Optimizes a statement that must be there, e.g., a loop body.
+	 * @return The statement, or an empty block if it does nothing.
+	 */
+	private static NodeStmt body(NodeStmt s) {
+		NodeStmt stmt=stmt(s);
+		return stmt!=null ? stmt : new NodeStmt(new NodeBlock());
+	}
+
+	private static NodeBoolexpr boolexpr(NodeBoolexpr b) {
+		NodeBoolexpr cond=new NodeBoolexpr(expr(b.getExpr1()),b.getRelop(),expr(b.getExpr2()));
+		cond.pos=b.pos;
+		return cond;
+	}
+
+	/**
+	 * Returns a condition's value, if it is constant.
+	 * @return The value, or null.
+	 */
+	private static Boolean constant(NodeBoolexpr b) {
+		Double v1=constant(b.getExpr1());
+		Double v2=constant(b.getExpr2());
+		if (v1==null || v2==null)
+			return null;
+		return b.getRelop().test(v1,v2);
+	}
+
+	private static NodeExpr expr(NodeExpr e) {
+		// the chain, leftmost term first
+		ArrayDeque<NodeExpr> chain=new ArrayDeque<>();
+		for (NodeExpr n=e; n!=null; n=n.getExpr())
+			chain.push(n);
+		List<NodeAddop> ops=new ArrayList<>();
+		List<NodeTerm> terms=new ArrayList<>();
+		Double prefix=null; // the value of terms, while they are constant
+		for (NodeExpr n: chain) {
+			NodeAddop op=n.getAddop();
+			NodeTerm term=term(n.getTerm());
+			Double c=constant(term);
+			if (op!=null && prefix!=null && c!=null) {
+				double v=fold(op,prefix,c);
+				if (Double.isFinite(v)) {
+					prefix=v;
+					terms.set(0,new NodeTerm(PartialEval.literal(v),null,null));
+					continue;
+				}
+			}
+			if (op!=null && c!=null && op.getOp().equals("-") && zero(c))
+				continue; // x-0
+			if (op==null)
+				prefix=c;
+			else
+				prefix=null;
+			ops.add(op);
+			terms.add(term);
+		}
+		NodeExpr expr=null;
+		for (int i=0; i<terms.size(); i++)
+			expr=new NodeExpr(terms.get(i),ops.get(i),expr);
+		expr.pos=e.pos;
+		return expr;
+	}
+
+	private static NodeTerm term(NodeTerm t) {
+		ArrayDeque<NodeTerm> chain=new ArrayDeque<>();
+		for (NodeTerm n=t; n!=null; n=n.getTerm())
+			chain.push(n);
+		List<NodeMulop> ops=new ArrayList<>();
+		List<NodeFact> facts=new ArrayList<>();
+		Double prefix=null; // the value of facts, while they are constant
+		for (NodeTerm n: chain) {
+			NodeMulop op=n.getMulop();
+			NodeFact fact=fact(n.getFact());
+			Double c=constant(fact);
+			if (op!=null && prefix!=null && c!=null) {
+				double v=fold(op,prefix,c);
+				if (Double.isFinite(v)) {
+					prefix=v;
+					facts.set(0,PartialEval.literal(v));
+					continue;
+				}
+			}
+			if (op!=null && c!=null && c==1.0)
+				continue; // x*1, x/1
+			if (op!=null && op.getOp().equals("*") && facts.size()==1
+					&& prefix!=null && prefix==1.0) { // 1*x
+				facts.set(0,fact);
+				prefix=c;
+				continue;
+			}
+			if (op==null)
+				prefix=c;
+			else
+				prefix=null;
+			ops.add(op);
+			facts.add(fact);
+		}
+		NodeTerm term=null;
+		for (int i=0; i<facts.size(); i++)
+			term=new NodeTerm(facts.get(i),ops.get(i),term);
+		term.pos=t.pos;
+		return term;
+	}
+
+	private static NodeFact fact(NodeFact f) {
+		if (f instanceof NodeFactExpr) {
+			NodeExpr e=expr(((NodeFactExpr)f).getExpr());
+			if (e.getExpr()==null && e.getTerm().getTerm()==null)
+				return e.getTerm().getFact(); // (x), or (5)
+			NodeFactExpr fact=new NodeFactExpr(e);
+			fact.pos=f.pos;
+			return fact;
+		}
+		if (f instanceof NodeFactUnary) {
+			NodeFact g=fact(((NodeFactUnary)f).getFact());
+			Double c=constant(g);
+			if (c!=null)
+				return PartialEval.literal(-c);
+			return new NodeFactUnary(f.pos,g);
+		}
+		return f;
+	}
+
+	private static double fold(Node op, double o1, double o2) {
+		try {
+			return op instanceof NodeAddop
+				? ((NodeAddop)op).op(o1,o2)
+				: ((NodeMulop)op).op(o1,o2);
+		} catch (EvalException e) {
+			return Double.NaN; // a bogus operator: not folded
+		}
+	}
+
+	private static boolean zero(double d) {
+		return Double.doubleToRawLongBits(d)==0; // +0, not -0
+	}
+
+	// constant values: literals, possibly negated
+
+	private static Double constant(NodeExpr e) {
+		return e.getExpr()==null ? constant(e.getTerm()) : null;
+	}
+
+	private static Double constant(NodeTerm t) {
+		return t.getTerm()==null ? constant(t.getFact()) : null;
+	}
+
+	private static Double constant(NodeFact f) {
+		if (f instanceof NodeFactNum)
+			return ((NodeFactNum)f).getVal();
+		if (f instanceof NodeFactUnary) {
+			Double c=constant(((NodeFactUnary)f).getFact());
+			return c==null ? null : -c;
+		}
+		return null;
+	}
+
+}
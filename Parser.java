@@ -1,106 +1,162 @@
+import java.io.PrintStream;
+
 /**
  * A recursive-descent parser for the source language (TA2).
  * It uses a Scanner to tokenize the input program and builds an
  * Abstract Syntax Tree (AST) composed of Node objects.
+ * Tokens are compared by int kind, from the Scanner's TokenBuffer.
+ * Identifiers are interned in a symbol table that lasts as long as
+ * the Parser, so a variable has the same id in every program it parses,
+ * unless it is parsed one statement at a time (see nextStmt()).
  */
 public class Parser {
 
 	private Scanner scanner;
+	private Source program;
+	private TokenBuffer tokens = new TokenBuffer();
+	private int tok; // index of the current token
+	private Symbols ids = new Symbols();
+	private boolean more; // whether a top-level statement may follow
+	private static final int maxIds = 1 << 12; // names kept between statements
+	private PrintStream err;
+
+	/**
+	 * Constructs a Parser that reports illegal characters to System.err.
+	 */
+	public Parser() {
+		this(System.err);
+	}
+
+	/**
+	 * Constructs a Parser that reports illegal characters to a given stream,
+	 * e.g., to hold them back until its program's turn comes.
+	 * @param err Where illegal characters are reported.
+	 */
+	public Parser(PrintStream err) {
+		this.err = err;
+	}
+
+	private int curr() {
+		return tokens.kind(tok);
+	}
 
-	private void match(String s) throws SyntaxException {
-		scanner.match(new Token(s));
+	private String lexeme() {
+		int kind = curr();
+		if (kind == Token.ID)
+			return ids.name(tokens.sym(tok));
+		if (kind == Token.NUM)
+			return scanner.lexeme(tokens.start(tok), tokens.end(tok));
+		return Token.name(kind);
 	}
 
-	private Token curr() throws SyntaxException {
-		return scanner.curr();
+	private Token found() {
+		return new Token(Token.name(curr()), lexeme());
+	}
+
+	private void match(int kind) throws SyntaxException {
+		if (curr() != kind)
+			throw new SyntaxException(pos(), new Token(Token.name(kind)), found());
+		tok++;
+		scanner.next(tokens);
 	}
 
 	private int pos() {
 		return scanner.pos();
 	}
 
+	private void scan(Source program, int from) {
+		this.program = program;
+		scanner = new Scanner(program, ids, err);
+		scanner.seek(from);
+		tokens.compact(tokens.size());
+		tok = 0;
+		scanner.next(tokens);
+	}
+
 	// === TA1 Expression Parsers (Unchanged) ===
 
 	private NodeMulop parseMulop() throws SyntaxException {
-		if (curr().equals(new Token("*"))) {
-			match("*");
-			return new NodeMulop(pos(), "*");
+		if (curr() == Token.TIMES) {
+			match(Token.TIMES);
+			return NodeMulop.of(pos(), "*");
 		}
-		if (curr().equals(new Token("/"))) {
-			match("/");
-			return new NodeMulop(pos(), "/");
+		if (curr() == Token.DIVIDE) {
+			match(Token.DIVIDE);
+			return NodeMulop.of(pos(), "/");
 		}
 		return null;
 	}
 
 	private NodeAddop parseAddop() throws SyntaxException {
-		if (curr().equals(new Token("+"))) {
-			match("+");
-			return new NodeAddop(pos(), "+");
+		if (curr() == Token.PLUS) {
+			match(Token.PLUS);
+			return NodeAddop.of(pos(), "+");
 		}
-		if (curr().equals(new Token("-"))) {
-			match("-");
-			return new NodeAddop(pos(), "-");
+		if (curr() == Token.MINUS) {
+			match(Token.MINUS);
+			return NodeAddop.of(pos(), "-");
 		}
 		return null;
 	}
 
 	private NodeFact parseFact() throws SyntaxException {
-		if (curr().equals(new Token("-"))) {
-			match("-");
+		if (curr() == Token.MINUS) {
+			match(Token.MINUS);
 			NodeFact fact = parseFact();
 			return new NodeFactUnary(pos(), fact);
 		}
-		if (curr().equals(new Token("("))) {
-			match("(");
+		if (curr() == Token.LPAREN) {
+			match(Token.LPAREN);
 			NodeExpr expr = parseExpr();
-			match(")");
+			match(Token.RPAREN);
 			return new NodeFactExpr(expr);
 		}
-		if (curr().equals(new Token("id"))) {
-			Token id = curr();
-			match("id");
-			return new NodeFactId(pos(), id.lex());
+		if (curr() == Token.ID) {
+			String id = lexeme();
+			match(Token.ID);
+			return new NodeFactId(pos(), id);
 		}
-		Token num = curr();
-		match("num");
-		return new NodeFactNum(num.lex());
+		String num = lexeme();
+		match(Token.NUM);
+		return new NodeFactNum(num);
 	}
 
+	/**
+	 * Parses a term: fact (mulop fact)*, left-associatively, in a loop.
+	 * Each node holds the rightmost fact and, in its term, everything to
+	 * its left, so "a/b/c" is built as ((a)/b)/c.
+	 */
 	private NodeTerm parseTerm() throws SyntaxException {
-		NodeFact fact = parseFact();
-		NodeMulop mulop = parseMulop();
-		if (mulop == null)
-			return new NodeTerm(fact, null, null);
-		NodeTerm term = parseTerm();
-		term.append(new NodeTerm(fact, mulop, null));
+		NodeTerm term = new NodeTerm(parseFact(), null, null);
+		for (NodeMulop mulop; (mulop = parseMulop()) != null; )
+			term = new NodeTerm(parseFact(), mulop, term);
 		return term;
 	}
 
+	/**
+	 * Parses an expr: term (addop term)*, like parseTerm().
+	 */
 	private NodeExpr parseExpr() throws SyntaxException {
-		NodeTerm term = parseTerm();
-		NodeAddop addop = parseAddop();
-		if (addop == null)
-			return new NodeExpr(term, null, null);
-		NodeExpr expr = parseExpr();
-		expr.append(new NodeExpr(term, addop, null));
+		NodeExpr expr = new NodeExpr(parseTerm(), null, null);
+		for (NodeAddop addop; (addop = parseAddop()) != null; )
+			expr = new NodeExpr(parseTerm(), addop, expr);
 		return expr;
 	}
 	
 	// === TA2 New Parsers ===
 
 	private NodeRelop parseRelop() throws SyntaxException {
-		Token op = curr();
-		if (op.equals(new Token("<"))) { match("<"); }
-		else if (op.equals(new Token("<="))) { match("<="); }
-		else if (op.equals(new Token(">"))) { match(">"); }
-		else if (op.equals(new Token(">="))) { match(">="); }
-		else if (op.equals(new Token("<>"))) { match("<>"); }
-		else if (op.equals(new Token("=="))) { match("=="); }
+		int op = curr();
+		if (op == Token.LT) { match(Token.LT); }
+		else if (op == Token.LE) { match(Token.LE); }
+		else if (op == Token.GT) { match(Token.GT); }
+		else if (op == Token.GE) { match(Token.GE); }
+		else if (op == Token.NE) { match(Token.NE); }
+		else if (op == Token.EQ) { match(Token.EQ); }
 		else {
-			throw new SyntaxException(pos(), new Token("RELOP"), op);
+			throw new SyntaxException(pos(), new Token("RELOP"), found());
 		}
-		return new NodeRelop(pos(), op.tok());
+		return NodeRelop.of(pos(), Token.name(op));
 	}
 
 	private NodeBoolexpr parseBoolexpr() throws SyntaxException {
@@ -111,52 +167,52 @@ public class Parser {
 	}
 
 	private NodeAssn parseAssn() throws SyntaxException {
-		Token id = curr();
-		match("id");
-		match("=");
+		String id = lexeme();
+		match(Token.ID);
+		match(Token.ASSIGN);
 		NodeExpr expr = parseExpr();
-		NodeAssn assn = new NodeAssn(id.lex(), expr);
+		NodeAssn assn = new NodeAssn(id, expr);
 		return assn;
 	}
 
 	private NodeRd parseRd() throws SyntaxException {
-		match("rd");
-		Token id = curr();
-		match("id");
-		return new NodeRd(id.lex());
+		match(Token.RD);
+		String id = lexeme();
+		match(Token.ID);
+		return new NodeRd(id);
 	}
 
 	private NodeWr parseWr() throws SyntaxException {
-		match("wr");
+		match(Token.WR);
 		NodeExpr expr = parseExpr();
 		return new NodeWr(expr); // Re-uses the existing NodeWr class
 	}
 
 	private NodeIf parseIf() throws SyntaxException {
-		match("if");
+		match(Token.IF);
 		NodeBoolexpr boolexpr = parseBoolexpr();
-		match("then");
+		match(Token.THEN);
 		NodeStmt thenStmt = parseStmt();
 		NodeStmt elseStmt = null;
-		if (curr().equals(new Token("else"))) {
-			match("else");
+		if (curr() == Token.ELSE) {
+			match(Token.ELSE);
 			elseStmt = parseStmt();
 		}
 		return new NodeIf(boolexpr, thenStmt, elseStmt);
 	}
 
 	private NodeWhile parseWhile() throws SyntaxException {
-		match("while");
+		match(Token.WHILE);
 		NodeBoolexpr boolexpr = parseBoolexpr();
-		match("do");
+		match(Token.DO);
 		NodeStmt stmt = parseStmt();
 		return new NodeWhile(boolexpr, stmt);
 	}
 
 	private NodeBlock parseBeginEnd() throws SyntaxException {
-		match("begin");
+		match(Token.BEGIN);
 		NodeBlock block = parseBlock(); // Recursively parse the inner block
-		match("end");
+		match(Token.END);
 		return block;
 	}
 
@@ -166,58 +222,47 @@ public class Parser {
 	 * type of statement to parse (assn, rd, wr, if, while, begin).
 	 */
 	private NodeStmt parseStmt() throws SyntaxException {
-		Token t = curr();
+		int t = curr();
 
-		if (t.equals(new Token("id"))) {
+		if (t == Token.ID) {
 			return new NodeStmt(parseAssn());
 		}
-		if (t.equals(new Token("rd"))) {
+		if (t == Token.RD) {
 			return new NodeStmt(parseRd());
 		}
-		if (t.equals(new Token("wr"))) {
+		if (t == Token.WR) {
 			return new NodeStmt(parseWr());
 		}
-		if (t.equals(new Token("if"))) {
+		if (t == Token.IF) {
 			return new NodeStmt(parseIf());
 		}
-		if (t.equals(new Token("while"))) {
+		if (t == Token.WHILE) {
 			return new NodeStmt(parseWhile());
 		}
-		if (t.equals(new Token("begin"))) {
+		if (t == Token.BEGIN) {
 			return new NodeStmt(parseBeginEnd());
 		}
 
-		throw new SyntaxException(pos(), new Token("STMT"), t);
+		throw new SyntaxException(pos(), new Token("STMT"), found());
 	}
 
 	/**
 	 * Parses a block, which is a sequence of statements
 	 * separated by semicolons, according to the grammar:
 	 * block : stmt (';' block)?
+	 * The recursion in the rule is parsed as a loop, so a long block
+	 * takes linear time and constant stack.
 	 */
 	private NodeBlock parseBlock() throws SyntaxException {
 		NodeBlock block = new NodeBlock();
 
-		// Base case: block is empty (e.g., "begin end" or "EOF")
-		if (curr().equals(new Token("EOF")) || curr().equals(new Token("end"))) {
-			return block;
+		// The block (or the rest of it) is empty (e.g., "begin end" or "EOF")
+		while (curr() != Token.EOF && curr() != Token.END) {
+			block.addStmt(parseStmt()); // rule: block -> stmt ...
+			if (curr() != Token.SEMI)
+				break; // ... or just stmt (no ';', end of block)
+			match(Token.SEMI); // ... ';' block
 		}
-
-		NodeStmt stmt = parseStmt(); // rule: block -> stmt ...
-		block.addStmt(stmt);
-
-		if (curr().equals(new Token(";"))) {
-			match(";");
-			// rule: ... ';' block
-			// Recursively parse the rest of the block
-			NodeBlock restOfBlock = parseBlock(); 
-			// Add all statements from the recursive parse
-			for (NodeStmt s : restOfBlock.getStmts()) {
-				block.addStmt(s);
-			}
-		}
-		
-		// ... or just stmt (no ';', end of block)
 		return block;
 	}
 
@@ -229,11 +274,86 @@ public class Parser {
 	 * @throws SyntaxException if the program violates the grammar rules.
 	 */
 	public Node parse(String program) throws SyntaxException {
-		scanner = new Scanner(program);
-		scanner.next();
+		scan(Source.of(program), 0);
 		NodeBlock block = parseBlock(); // Top-level rule is now parseBlock()
-		match("EOF");
+		match(Token.EOF);
 		return block;
 	}
 
+	/**
+	 * Starts parsing a program one top-level statement at a time,
+	 * so each can be run, and dropped, before the next is parsed.
+	 * @param program The source program to parse.
+	 */
+	public void start(Source program) {
+		start(program, 0);
+	}
+
+	/**
+	 * Starts parsing a program one top-level statement at a time,
+	 * from a position where a top-level statement starts, e.g.,
+	 * to re-parse the statements after it.
+	 * @param program The source program to parse.
+	 * @param from The position.
+	 */
+	public void start(Source program, int from) {
+		scan(program, from);
+		more = true;
+	}
+
+	/**
+	 * Tells whether nextStmt() would parse a statement at the current
+	 * token, i.e., whether the last one was followed by a semicolon.
+	 * @return true if a top-level statement may start here.
+	 */
+	public boolean inBlock() {
+		return more;
+	}
+
+	/**
+	 * Returns where the current token starts: after nextStmt(),
+	 * where the next statement (or the end of the program) starts.
+	 * @return The position of the current token's first character.
+	 */
+	public int tokenStart() {
+		return tokens.start(tok);
+	}
+
+	/**
+	 * Parses the next top-level statement of the program passed to start().
+	 * The statements returned, followed by null, make up the same block
+	 * as parse() returns, and errors are reported at the same positions.
+	 * Once a statement is parsed, its tokens are dropped, and, if the
+	 * symbol table has grown large, so are its names, so a long program
+	 * is parsed in constant memory.
+	 * @return The statement, or null at the end of the program.
+	 * @throws SyntaxException if the program violates the grammar rules.
+	 */
+	public NodeStmt nextStmt() throws SyntaxException {
+		if (more && curr() != Token.EOF && curr() != Token.END) {
+			NodeStmt stmt = parseStmt();
+			more = curr() == Token.SEMI;
+			if (more)
+				match(Token.SEMI);
+			tokens.compact(tok); // drop the statement's tokens
+			tok = 0;
+			if (ids.size() > maxIds) {
+				ids = new Symbols();
+				scan(program, tokens.start(tok)); // re-intern the current token
+			}
+			return stmt;
+		}
+		match(Token.EOF);
+		return null;
+	}
+
+	/**
+	 * Returns the identifiers in the programs parsed so far, or, one
+	 * statement at a time, since nextStmt() last dropped them.
+	 * @return The symbol table, which gives each variable a stable int id.
+	 */
+	public Symbols getIds() {
+		return ids;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,452 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * A partial evaluator, which specializes programs against some or all
+ * of their rd inputs. It walks the AST with an abstract environment
+ * mapping each variable to its value when that is known, and produces
+ * a residual program in which known values are folded in, loops with
+ * known conditions are unrolled, and branches of NodeIf with known
+ * conditions are removed.
+ * The residual program reads, from its own input, just the values
+ * this evaluator did not consume (see leftover()), and produces
+ * byte-identical output. Its code() is the residual C.
+ */
+public class PartialEval {
+
+	// Loops are unrolled at most this many iterations;
+	// then the rest of the loop is left in the residual program.
+	private static final int unroll=10000;
+
+	private Deque<Double> known;
+	private boolean inputDynamic=false; // a residual rd has been emitted
+	private int dynamic=0; // depth of residual control flow
+	private boolean mayFail; // the current statement reads a possibly undefined variable
+	private boolean willFail; // ... or a surely undefined one
+	private boolean mayHaveFailed; // the program has a residual statement that may fail
+
+	// var -> known value, or null if only known at run time;
+	// absent vars are surely undefined
+	private Map<String,Double> state=new HashMap<>();
+	private Set<String> maybe=new HashSet<>(); // run-time vars that may be undefined
+	private Set<String> stored=new HashSet<>(); // known vars the run-time environment also holds
+
+	/**
+	 * Thrown to stop specializing a program once it surely fails.
+	 */
+	private static class Abort extends Exception {
+		private static final long serialVersionUID=1L;
+	}
+
+	/**
+	 * A value, known either now or only at run time.
+	 */
+	private static class Val {
+		private boolean known;
+		private double d;
+		private Node node; // residual NodeExpr, NodeTerm, NodeFact or NodeBoolexpr
+		Val(double d) { this.known=true; this.d=d; }
+		Val(Node node) { this.node=node; }
+	}
+
+	/**
+	 * Constructs a partial evaluator.
+	 * @param inputs The first values the programs will rd, in order.
+	 */
+	public PartialEval(List<Double> inputs) {
+		known=new ArrayDeque<>(inputs);
+	}
+
+	/**
+	 * Specializes a program, continuing from the state left by
+	 * previously specialized programs, as Main shares one environment.
+	 * @param block The program.
+	 * @return The residual program.
+	 * @throws EvalException If the program contains a bogus operator.
+	 */
+	public NodeBlock specialize(NodeBlock block) throws EvalException {
+		NodeBlock out=new NodeBlock();
+		mayHaveFailed=false;
+		try {
+			block(block,out);
+			if (mayHaveFailed)
+				store(out);
+		} catch (Abort e) {
+			// The rest of the program never runs.
+		}
+		if (mayHaveFailed)
+			forget();
+		return out;
+	}
+
+	/**
+	 * Specializes programs, as passed to Main, runs the residual programs,
+	 * and writes the residual C with Code.
+	 * Programs with syntax errors are reported and skipped.
+	 * @param progs The source programs.
+	 * @param inputs The first values the programs will rd, in order.
+	 */
+	public static void run(String[] progs, List<Double> inputs) {
+		Parser parser=new Parser();
+		PartialEval pe=new PartialEval(inputs);
+		List<NodeBlock> residuals=new ArrayList<>();
+		for (String prog: progs)
+			try {
+				residuals.add(pe.specialize((NodeBlock)parser.parse(prog)));
+			} catch (Exception e) {
+				System.err.println(e);
+			}
+		// All programs are specialized first, so leftover() is final.
+		StringBuilder s=new StringBuilder();
+		for (double d: pe.leftover())
+			s.append(d).append(' ');
+		Environment env=new Environment(
+			new SequenceInputStream(new ByteArrayInputStream(s.toString().getBytes()),System.in),System.out);
+		StringBuilder code=new StringBuilder();
+		for (NodeBlock residual: residuals)
+			try {
+				residual.eval(env);
+				code.append(Code.body(residual));
+			} catch (Exception e) {
+				System.err.println(e);
+			}
+		new Code(code,env);
+	}
+
+	/**
+	 * Returns the known inputs not consumed, which residual programs
+	 * read before the rest of their input.
+	 * @return The leftover inputs, in order.
+	 */
+	public List<Double> leftover() {
+		return new ArrayList<>(known);
+	}
+
+	// literals
+
+	/**
+	 * Builds a literal fact with exactly the given value.
+	 * The text is always lexable, and parses back to the same double,
+	 * both in Java and in C.
+	 */
+	static NodeFact literal(double d) {
+		if (Double.isNaN(d))
+			return new NodeFactExpr(div(0,0));
+		if (Double.isInfinite(d))
+			return d>0 ? new NodeFactExpr(div(1,0)) : new NodeFactUnary(0,new NodeFactExpr(div(1,0)));
+		double a=Math.abs(d);
+		String s=Double.toString(a);
+		if (s.contains("E"))
+			s=new BigDecimal(a).toPlainString();
+		NodeFact num=new NodeFactNum(s);
+		return (d<0 || 1/d<0) ? new NodeFactUnary(0,num) : num;
+	}
+
+	private static NodeExpr div(double a, double b) {
+		NodeTerm t=new NodeTerm(literal(b),NodeMulop.of(0,"/"),new NodeTerm(literal(a),null,null));
+		return new NodeExpr(t,null,null);
+	}
+
+	private static NodeFact toFact(Val v) {
+		if (v.known)
+			return literal(v.d);
+		if (v.node instanceof NodeFact)
+			return (NodeFact)v.node;
+		return new NodeFactExpr(toExpr(v));
+	}
+
+	private static NodeTerm toTerm(Val v) {
+		if (!v.known && v.node instanceof NodeTerm)
+			return (NodeTerm)v.node;
+		if (!v.known && v.node instanceof NodeExpr)
+			return new NodeTerm(new NodeFactExpr((NodeExpr)v.node),null,null);
+		return new NodeTerm(toFact(v),null,null);
+	}
+
+	private static NodeExpr toExpr(Val v) {
+		if (!v.known && v.node instanceof NodeExpr)
+			return (NodeExpr)v.node;
+		return new NodeExpr(toTerm(v),null,null);
+	}
+
+	private static NodeStmt assn(String id, double d) {
+		return new NodeStmt(new NodeAssn(id,toExpr(new Val(d))));
+	}
+
+	// statements, whose residual code is appended to out
+
+	/**
+	 * Prepares for a residual statement that may fail, making the
+	 * run-time environment agree with the known values, since a
+	 * failing program leaves them behind for the programs after it.
+	 */
+	private void failing(NodeBlock out) {
+		if (!mayFail && !willFail)
+			return;
+		mayHaveFailed=true;
+		store(out);
+	}
+
+	/**
+	 * Makes the run-time environment agree with the known values.
+	 */
+	private void store(NodeBlock out) {
+		for (String v: new TreeSet<>(state.keySet()))
+			if (state.get(v)!=null && stored.add(v))
+				out.addStmt(assn(v,state.get(v)));
+	}
+
+	/**
+	 * Treats every value as known only at run time, and as possibly
+	 * undefined, after a program that may have failed part way through,
+	 * leaving the values it had then, rather than those it ends with.
+	 */
+	private void forget() {
+		for (String v: state.keySet()) {
+			state.put(v,null);
+			maybe.add(v);
+		}
+		stored.clear();
+	}
+
+	private void failed() throws Abort {
+		if (willFail && dynamic==0)
+			throw new Abort();
+	}
+
+	private void define(String id, Double d) {
+		state.put(id,d);
+		maybe.remove(id);
+		stored.remove(id);
+	}
+
+	private void block(NodeBlock block, NodeBlock out) throws EvalException, Abort {
+		for (NodeStmt s: block.getStmts())
+			stmt(s,out);
+	}
+
+	private void stmt(NodeStmt stmt, NodeBlock out) throws EvalException, Abort {
+		Node n=stmt.getStmt();
+		mayFail=willFail=false;
+		if (n instanceof NodeAssn) {
+			NodeAssn assn=(NodeAssn)n;
+			Val v=expr(assn.getExpr());
+			if (v.known)
+				define(assn.getId(),v.d);
+			else {
+				failing(out);
+				out.addStmt(new NodeStmt(new NodeAssn(assn.getId(),toExpr(v))));
+				failed();
+				define(assn.getId(),null);
+			}
+		} else if (n instanceof NodeRd) {
+			String id=((NodeRd)n).getId();
+			if (dynamic==0 && !inputDynamic && !known.isEmpty())
+				define(id,known.removeFirst());
+			else {
+				mayFail=true; // at the end of input
+				failing(out);
+				out.addStmt(new NodeStmt(new NodeRd(id)));
+				define(id,null);
+				inputDynamic=true;
+			}
+		} else if (n instanceof NodeWr) {
+			Val v=expr(((NodeWr)n).getExpr());
+			failing(out);
+			out.addStmt(new NodeStmt(new NodeWr(toExpr(v))));
+			failed();
+		} else if (n instanceof NodeIf)
+			ifStmt((NodeIf)n,out);
+		else if (n instanceof NodeWhile)
+			whileStmt((NodeWhile)n,out);
+		else if (n instanceof NodeBlock)
+			block((NodeBlock)n,out);
+		else
+			throw new EvalException(stmt.pos,"Empty NodeStmt");
+	}
+
+	private void ifStmt(NodeIf ifStmt, NodeBlock out) throws EvalException, Abort {
+		Val c=cond(ifStmt.getBoolexpr());
+		if (c.known) {
+			if (c.d==1.0)
+				stmt(ifStmt.getThenStmt(),out);
+			else if (ifStmt.getElseStmt()!=null)
+				stmt(ifStmt.getElseStmt(),out);
+			return;
+		}
+		failing(out);
+		if (willFail && dynamic==0) {
+			out.addStmt(new NodeStmt(new NodeIf((NodeBoolexpr)c.node,new NodeStmt(new NodeBlock()),null)));
+			failed();
+		}
+		dynamic++;
+		Map<String,Double> before=state;
+		Set<String> beforeMaybe=maybe;
+		Set<String> beforeStored=stored;
+		state=new HashMap<>(before);
+		maybe=new HashSet<>(beforeMaybe);
+		stored=new HashSet<>(beforeStored);
+		NodeBlock thenOut=new NodeBlock();
+		stmt(ifStmt.getThenStmt(),thenOut);
+		Map<String,Double> thenState=state;
+		Set<String> thenMaybe=maybe;
+		Set<String> thenStored=stored;
+		state=new HashMap<>(before);
+		maybe=new HashSet<>(beforeMaybe);
+		stored=new HashSet<>(beforeStored);
+		NodeBlock elseOut=new NodeBlock();
+		if (ifStmt.getElseStmt()!=null)
+			stmt(ifStmt.getElseStmt(),elseOut);
+		Map<String,Double> elseState=state;
+		dynamic--;
+		stored.retainAll(thenStored);
+		// Join: values that differ become run-time values,
+		// assigned on the branches that knew them.
+		Set<String> vars=new TreeSet<>(thenState.keySet());
+		vars.addAll(elseState.keySet());
+		state=new HashMap<>();
+		maybe.addAll(thenMaybe);
+		for (String v: vars) {
+			Double t=thenState.get(v);
+			Double e=elseState.get(v);
+			if (t!=null && t.equals(e))
+				state.put(v,t);
+			else {
+				if (t!=null)
+					thenOut.addStmt(assn(v,t));
+				if (e!=null)
+					elseOut.addStmt(assn(v,e));
+				state.put(v,null);
+				if (!thenState.containsKey(v) || !elseState.containsKey(v))
+					maybe.add(v);
+			}
+		}
+		out.addStmt(new NodeStmt(new NodeIf((NodeBoolexpr)c.node,
+			new NodeStmt(thenOut),
+			elseOut.getStmts().isEmpty() ? null : new NodeStmt(elseOut))));
+	}
+
+	private void whileStmt(NodeWhile whileStmt, NodeBlock out) throws EvalException, Abort {
+		for (int i=0; i<unroll; i++) {
+			mayFail=willFail=false;
+			Val c=cond(whileStmt.getBoolexpr());
+			if (!c.known)
+				break;
+			if (c.d!=1.0)
+				return;
+			stmt(whileStmt.getStmt(),out);
+		}
+		// Leave the rest of the loop in the residual program.
+		// Variables it assigns become run-time values, so their
+		// known values are assigned just before it.
+		Set<String> assigned=new TreeSet<>();
+		assigned(whileStmt.getStmt(),assigned);
+		for (String v: assigned) {
+			Double d=state.get(v);
+			if (d!=null)
+				out.addStmt(assn(v,d));
+			if (!state.containsKey(v))
+				maybe.add(v);
+			state.put(v,null);
+		}
+		mayFail=willFail=false;
+		Val c=cond(whileStmt.getBoolexpr());
+		NodeBoolexpr b=c.known ? residualCond(whileStmt.getBoolexpr()) : (NodeBoolexpr)c.node;
+		failing(out);
+		if (willFail && dynamic==0) {
+			out.addStmt(new NodeStmt(new NodeWhile(b,new NodeStmt(new NodeBlock()))));
+			failed();
+		}
+		dynamic++;
+		Set<String> beforeStored=stored;
+		stored=new HashSet<>(beforeStored);
+		NodeBlock body=new NodeBlock();
+		stmt(whileStmt.getStmt(),body);
+		for (String v: assigned) {
+			Double d=state.get(v);
+			if (d!=null)
+				body.addStmt(assn(v,d));
+			state.put(v,null);
+		}
+		stored=beforeStored; // the body may not run
+		dynamic--;
+		out.addStmt(new NodeStmt(new NodeWhile(b,new NodeStmt(body))));
+	}
+
+	private static void assigned(Node n, Set<String> vars) {
+		if (n instanceof NodeBlock)
+			for (NodeStmt s: ((NodeBlock)n).getStmts())
+				assigned(s,vars);
+		else if (n instanceof NodeStmt)
+			assigned(((NodeStmt)n).getStmt(),vars);
+		else if (n instanceof NodeAssn)
+			vars.add(((NodeAssn)n).getId());
+		else if (n instanceof NodeRd)
+			vars.add(((NodeRd)n).getId());
+		else if (n instanceof NodeIf) {
+			assigned(((NodeIf)n).getThenStmt(),vars);
+			if (((NodeIf)n).getElseStmt()!=null)
+				assigned(((NodeIf)n).getElseStmt(),vars);
+		} else if (n instanceof NodeWhile)
+			assigned(((NodeWhile)n).getStmt(),vars);
+	}
+
+	// expressions
+
+	private Val cond(NodeBoolexpr b) throws EvalException {
+		Val v1=expr(b.getExpr1());
+		Val v2=expr(b.getExpr2());
+		if (v1.known && v2.known)
+			return new Val(b.getRelop().op(v1.d,v2.d));
+		return new Val(new NodeBoolexpr(toExpr(v1),b.getRelop(),toExpr(v2)));
+	}
+
+	private NodeBoolexpr residualCond(NodeBoolexpr b) throws EvalException {
+		return new NodeBoolexpr(toExpr(expr(b.getExpr1())),b.getRelop(),toExpr(expr(b.getExpr2())));
+	}
+
+	private Val expr(NodeExpr e) throws EvalException {
+		if (e.getExpr()==null)
+			return term(e.getTerm());
+		Val a=expr(e.getExpr());
+		Val b=term(e.getTerm());
+		if (a.known && b.known)
+			return new Val(e.getAddop().op(a.d,b.d));
+		return new Val(new NodeExpr(toTerm(b),e.getAddop(),toExpr(a)));
+	}
+
+	private Val term(NodeTerm t) throws EvalException {
+		if (t.getTerm()==null)
+			return fact(t.getFact());
+		Val a=term(t.getTerm());
+		Val b=fact(t.getFact());
+		if (a.known && b.known)
+			return new Val(t.getMulop().op(a.d,b.d));
+		return new Val(new NodeTerm(toFact(b),t.getMulop(),toTerm(a)));
+	}
+
+	private Val fact(NodeFact f) throws EvalException {
+		if (f instanceof NodeFactNum)
+			return new Val(f.eval(null));
+		if (f instanceof NodeFactId) {
+			String id=((NodeFactId)f).getId();
+			Double d=state.get(id);
+			if (d!=null)
+				return new Val(d);
+			if (!state.containsKey(id))
+				willFail=true;
+			else if (maybe.contains(id))
+				mayFail=true;
+			return new Val(f);
+		}
+		if (f instanceof NodeFactExpr)
+			return expr(((NodeFactExpr)f).getExpr());
+		if (f instanceof NodeFactUnary) {
+			Val v=fact(((NodeFactUnary)f).getFact());
+			return v.known ? new Val(-v.d) : new Val(new NodeFactUnary(f.pos,toFact(v)));
+		}
+		throw new EvalException(f.pos,"cannot eval() node!");
+	}
+
+}
@@ -0,0 +1,252 @@
+import java.util.*;
+
+/**
+ * The pass manager: runs a program's pipeline of passes in order,
+ * timing each, and computes analyses of its AST on demand, caching
+ * each result by the node it is of.
+ * <p>
+ * The rewriting passes (Optimizer, Ssa, ClosedForm) build new nodes for
+ * what they change, and copy its ancestors, sharing the subtrees they
+ * leave alone. So a cached result stays valid while its node is in the
+ * tree: after a pass returns a new root, the results of nodes no longer
+ * in it are dropped, and those of the shared subtrees kept. A pass that
+ * changes nodes in place must not change what the analyses see
+ * (variables and statements); Types, which only annotates, does not.
+ * <p>
+ * The analyses, like the passes, are instanceof walkers, over the
+ * children Vars.children() returns:
+ * <ul>
+ * <li>vars(): the variables a subtree mentions, as Vars.of() finds them.</li>
+ * <li>defs() and uses(): those it may assign (or rd), and those it reads.</li>
+ * <li>exposed(): those it may read before assigning, and kills(): those
+ * it assigns on every path; together, liveness (see live()).</li>
+ * <li>depth(): how deeply its loops nest.</li>
+ * </ul>
+ */
+public class Passes {
+
+	/**
+	 * A pass: returns the rewritten tree, or its input.
+	 */
+	public interface Pass {
+		Node run(Node root, Passes passes);
+	}
+
+	private final List<String> names=new ArrayList<>();
+	private final List<Pass> passes=new ArrayList<>();
+	private final Map<String,Long> times=new LinkedHashMap<>();
+	private int next;
+
+	private final Map<Node,Set<String>> vars=new IdentityHashMap<>();
+	private final Map<Node,Set<String>> defs=new IdentityHashMap<>();
+	private final Map<Node,Set<String>> uses=new IdentityHashMap<>();
+	private final Map<Node,Set<String>> exposed=new IdentityHashMap<>();
+	private final Map<Node,Set<String>> kills=new IdentityHashMap<>();
+	private final Map<Node,Integer> depth=new IdentityHashMap<>();
+
+	/**
+	 * Appends a pass to the pipeline.
+	 * @param name The pass's name, under which it is timed.
+	 * @param pass The pass.
+	 * @return this.
+	 */
+	public Passes add(String name, Pass pass) {
+		names.add(name);
+		passes.add(pass);
+		return this;
+	}
+
+	/**
+	 * Runs the passes added since the last run, in order.
+	 * @param root The root of the program's AST.
+	 * @return The root of the rewritten AST.
+	 */
+	public Node run(Node root) {
+		for (; next<passes.size(); next++) {
+			long start=System.nanoTime();
+			Node n=passes.get(next).run(root,this);
+			if (n!=root)
+				retain(n);
+			root=n;
+			times.merge(names.get(next),System.nanoTime()-start,Long::sum);
+		}
+		return root;
+	}
+
+	/**
+	 * Returns the time each pass has taken, including the analyses it
+	 * computed, e.g., "optimize 0.120 ms, ssa 0.351 ms".
+	 */
+	public String times() {
+		StringJoiner s=new StringJoiner(", ");
+		for (Map.Entry<String,Long> e: times.entrySet())
+			s.add(String.format("%s %.3f ms",e.getKey(),e.getValue()/1e6));
+		return s.toString();
+	}
+
+	/**
+	 * Drops the cached results of the nodes not in a tree.
+	 * @param root The root of the tree.
+	 */
+	private void retain(Node root) {
+		Set<Node> nodes=Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Map<Node,?> m: Arrays.asList(vars,defs,uses,exposed,kills,depth))
+			nodes.addAll(m.keySet());
+		if (nodes.isEmpty())
+			return;
+		Set<Node> live=Collections.newSetFromMap(new IdentityHashMap<>());
+		reach(root,live);
+		nodes.removeAll(live);
+		for (Map<Node,?> m: Arrays.asList(vars,defs,uses,exposed,kills,depth))
+			m.keySet().removeAll(nodes);
+	}
+
+	private static void reach(Node n, Set<Node> live) {
+		if (n==null || !live.add(n))
+			return;
+		for (Node c: Vars.children(n))
+			reach(c,live);
+	}
+
+	/**
+	 * Returns the variables a subtree mentions, in order of first mention.
+	 * @param n The root of the subtree.
+	 */
+	public Set<String> vars(Node n) {
+		Set<String> s=vars.get(n);
+		if (s==null)
+			vars.put(n,s=Collections.unmodifiableSet(Vars.of(n)));
+		return s;
+	}
+
+	/**
+	 * Returns the variables a subtree may assign, or rd.
+	 * @param n The root of the subtree, or null.
+	 */
+	public Set<String> defs(Node n) {
+		Set<String> s=defs.get(n);
+		if (s!=null || n==null)
+			return n==null ? Collections.emptySet() : s;
+		s=new LinkedHashSet<>();
+		if (n instanceof NodeAssn)
+			s.add(((NodeAssn)n).getId());
+		else if (n instanceof NodeRd)
+			s.add(((NodeRd)n).getId());
+		for (Node c: Vars.children(n))
+			s.addAll(defs(c));
+		defs.put(n,s=Collections.unmodifiableSet(s));
+		return s;
+	}
+
+	/**
+	 * Returns the variables a subtree reads.
+	 * @param n The root of the subtree, or null.
+	 */
+	public Set<String> uses(Node n) {
+		Set<String> s=uses.get(n);
+		if (s!=null || n==null)
+			return n==null ? Collections.emptySet() : s;
+		s=new LinkedHashSet<>();
+		if (n instanceof NodeFactId)
+			s.add(((NodeFactId)n).getId());
+		for (Node c: Vars.children(n))
+			s.addAll(uses(c));
+		uses.put(n,s=Collections.unmodifiableSet(s));
+		return s;
+	}
+
+	/**
+	 * Returns the variables a statement assigns, or rd, on every path
+	 * through it: a loop's body may not run, and only what both
+	 * branches of an if assign is.
+	 * @param n The statement, or null.
+	 */
+	public Set<String> kills(Node n) {
+		Set<String> s=kills.get(n);
+		if (s!=null || n==null)
+			return n==null ? Collections.emptySet() : s;
+		if (n instanceof NodeStmt)
+			s=kills(((NodeStmt)n).getStmt());
+		else if (n instanceof NodeBlock) {
+			s=new LinkedHashSet<>();
+			for (NodeStmt c: ((NodeBlock)n).getStmts())
+				s.addAll(kills(c));
+		} else if (n instanceof NodeIf) {
+			s=new LinkedHashSet<>(kills(((NodeIf)n).getThenStmt()));
+			s.retainAll(kills(((NodeIf)n).getElseStmt()));
+		} else if (n instanceof NodeAssn || n instanceof NodeRd)
+			s=defs(n);
+		else
+			s=Collections.emptySet(); // wr, while
+		kills.put(n,s=Collections.unmodifiableSet(s));
+		return s;
+	}
+
+	/**
+	 * Returns the variables a statement may read before assigning them:
+	 * the variables live before it, if none are live after it.
+	 * @param n The statement, or null.
+	 */
+	public Set<String> exposed(Node n) {
+		Set<String> s=exposed.get(n);
+		if (s!=null || n==null)
+			return n==null ? Collections.emptySet() : s;
+		if (n instanceof NodeStmt)
+			s=exposed(((NodeStmt)n).getStmt());
+		else if (n instanceof NodeBlock) {
+			s=new LinkedHashSet<>();
+			Set<String> killed=new HashSet<>();
+			for (NodeStmt c: ((NodeBlock)n).getStmts()) {
+				for (String v: exposed(c))
+					if (!killed.contains(v))
+						s.add(v);
+				killed.addAll(kills(c));
+			}
+		} else if (n instanceof NodeIf) {
+			NodeIf i=(NodeIf)n;
+			s=new LinkedHashSet<>(uses(i.getBoolexpr()));
+			s.addAll(exposed(i.getThenStmt()));
+			s.addAll(exposed(i.getElseStmt()));
+		} else if (n instanceof NodeWhile) {
+			s=new LinkedHashSet<>(uses(((NodeWhile)n).getBoolexpr()));
+			s.addAll(exposed(((NodeWhile)n).getStmt()));
+		} else
+			s=uses(n); // assignments read before they write
+		exposed.put(n,s=Collections.unmodifiableSet(s));
+		return s;
+	}
+
+	/**
+	 * Returns the variables live before a block's i-th statement.
+	 * @param b The block.
+	 * @param i The statement's index.
+	 * @param out The variables live after the block.
+	 */
+	public Set<String> live(NodeBlock b, int i, Set<String> out) {
+		Set<String> live=new LinkedHashSet<>(out);
+		List<NodeStmt> stmts=b.getStmts();
+		for (int j=stmts.size()-1; j>=i; j--) {
+			live.removeAll(kills(stmts.get(j)));
+			live.addAll(exposed(stmts.get(j)));
+		}
+		return live;
+	}
+
+	/**
+	 * Returns how deeply a subtree's loops nest: 0 if it has none.
+	 * @param n The root of the subtree, or null.
+	 */
+	public int depth(Node n) {
+		if (n==null)
+			return 0;
+		Integer d=depth.get(n);
+		if (d==null) {
+			int max=0;
+			for (Node c: Vars.children(n))
+				max=Math.max(max,depth(c));
+			depth.put(n,d=n instanceof NodeWhile ? max+1 : max);
+		}
+		return d;
+	}
+
+}
@@ -1,108 +1,111 @@
-import java.util.*;
+import java.io.PrintStream;
 
 /**
  * A lexical analyzer (scanner) for the source language.
  * It tokenizes the input program string, handling identifiers, numbers (doubles),
  * operators, whitespace, and comments.
+ * Characters are classified by a static lookup table, and operators and
+ * keywords by direct char comparisons, so scanning allocates nothing per
+ * character. Tokens are appended to a TokenBuffer, as int kinds and
+ * positions; identifiers are interned, so a name seen before allocates
+ * nothing either. Numbers are not: their text is read back from the
+ * source (see lexeme()), so distinct literals do not pile up in a table.
  */
 public class Scanner {
 
-	private String program;		// source program being interpreted
+	private Source program;		// source program being interpreted
 	private int pos;			// index of next char in program
-	private Token token;		// last/current scanned token
+	private Symbols ids;		// identifiers
+	private PrintStream err;	// where illegal characters are reported
 
-	// sets of various characters and lexemes
-	private Set<String> whitespace=new HashSet<String>();
-	private Set<String> digits=new HashSet<String>();
-	private Set<String> letters=new HashSet<String>();
-	private Set<String> legits=new HashSet<String>();
-	private Set<String> keywords=new HashSet<String>();
-	private Set<String> operators=new HashSet<String>();
+	// classes of ASCII characters; others are illegal
 
-	// initializers for previous sets
+	private static final byte ILLEGAL=0;
+	private static final byte WHITESPACE=1;
+	private static final byte DIGIT=2;
+	private static final byte LETTER=3;
+	private static final byte OPERATOR=4;
 
-	private void fill(Set<String> s, char lo, char hi) {
-		for (char c=lo; c<=hi; c++)
-			s.add(c+"");
-	}
-
-	private void initWhitespace(Set<String> s) {
-		s.add(" ");
-		s.add("\n");
-		s.add("\t");
-	}
-
-	private void initDigits(Set<String> s) {
-		fill(s,'0','9');
-	}
+	private static final byte[] classes=new byte[128];
+	private static final int[] operators=new int[128]; // kinds of one-char operators
 
-	private void initLetters(Set<String> s) {
-		fill(s,'A','Z');
-		fill(s,'a','z');
-	}
-
-	private void initLegits(Set<String> s) {
-		s.addAll(letters);
-		s.addAll(digits);
+	private static final int[] keywords={
+		// TA2 keywords
+		Token.RD,
+		Token.WR,
+		Token.IF,
+		Token.THEN,
+		Token.ELSE,
+		Token.WHILE,
+		Token.DO,
+		Token.BEGIN,
+		Token.END,
+	};
+
+	static {
+		classes[' ']=WHITESPACE;
+		classes['\n']=WHITESPACE;
+		classes['\t']=WHITESPACE;
+		for (char c='0'; c<='9'; c++)
+			classes[c]=DIGIT;
+		for (char c='A'; c<='Z'; c++)
+			classes[c]=LETTER;
+		for (char c='a'; c<='z'; c++)
+			classes[c]=LETTER;
+		// TA1 and TA2 operators
+		int[] kinds={Token.ASSIGN,Token.PLUS,Token.MINUS,Token.TIMES,Token.DIVIDE,
+			Token.LPAREN,Token.RPAREN,Token.SEMI,Token.LT,Token.GT};
+		for (int kind: kinds) {
+			char c=Token.name(kind).charAt(0);
+			classes[c]=OPERATOR;
+			operators[c]=kind;
+		}
 	}
 
-	private void initOperators(Set<String> s) {
-		// TA1 operators
-		s.add("=");
-		s.add("+");
-		s.add("-");
-		s.add("*");
-		s.add("/");
-		s.add("(");
-		s.add(")");
-		s.add(";");
-		
-		// TA2 operators
-		s.add("<");
-		s.add("<=");
-		s.add(">");
-		s.add(">=");
-		s.add("<>");
-		s.add("==");
+	/**
+	 * Constructs a new Scanner for the given program string.
+	 * @param program The source code to be scanned.
+	 */
+	public Scanner(String program) {
+		this(Source.of(program),new Symbols());
 	}
 
-	private void initKeywords(Set<String> s) {
-		// TA2 keywords
-		s.add("rd");
-		s.add("wr");
-		s.add("if");
-		s.add("then");
-		s.add("else");
-		s.add("while");
-		s.add("do");
-		s.add("begin");
-		s.add("end");
+	/**
+	 * Constructs a new Scanner for a program that may not be in memory.
+	 * Characters before the current token are released as it goes.
+	 * @param program The source code to be scanned.
+	 * @param ids The table identifiers are interned in.
+	 */
+	public Scanner(Source program, Symbols ids) {
+		this(program,ids,System.err);
 	}
 
 	/**
-	 * Constructs a new Scanner for the given program string.
+	 * Constructs a new Scanner that reports illegal characters to a given stream.
 	 * @param program The source code to be scanned.
+	 * @param ids The table identifiers are interned in.
+	 * @param err Where illegal characters are reported.
 	 */
-	public Scanner(String program) {
+	public Scanner(Source program, Symbols ids, PrintStream err) {
 		this.program=program;
+		this.ids=ids;
+		this.err=err;
 		pos=0;
-		token=null;
-		initWhitespace(whitespace);
-		initDigits(digits);
-		initLetters(letters);
-		initLegits(legits);
-		initKeywords(keywords);
-		initOperators(operators);
 	}
 
 	// handy string-processing methods
 
 	public boolean done() {
-		return pos>=program.length();
+		return !program.has(pos);
 	}
 
-	private void many(Set<String> s) {
-		while (!done()&&s.contains(program.charAt(pos)+""))
+	private byte classAt(int i) {
+		char c=program.charAt(i);
+		return c<classes.length ? classes[c] : ILLEGAL;
+	}
+
+	private void many(byte c) {
+		while (!done()&&classAt(pos)==c)
 			pos++;
 	}
 
@@ -114,59 +117,77 @@ public class Scanner {
 	 */
 	private void past(char c) {
 		while (!done()&&c!=program.charAt(pos))
-			pos++;
+			program.release(++pos);
 		if (!done()&&c==program.charAt(pos))
 			pos++;
 	}
 
 	// scan various kinds of lexeme
 
-	private void nextNumber() {
+	private int nextNumber(TokenBuffer tokens) {
 		int old=pos;
-		many(digits);
+		many(DIGIT);
 		if (!done() && program.charAt(pos) == '.') {
 			pos++;
-			many(digits);
+			many(DIGIT);
 		}
-		token=new Token("num",program.substring(old,pos));
+		tokens.add(Token.NUM,old,pos,-1);
+		return Token.NUM;
 	}
 
-	private void nextKwId() {
+	private int nextKwId(TokenBuffer tokens) {
 		int old=pos;
-		many(letters);
-		many(legits);
-		String lexeme=program.substring(old,pos);
-		token=new Token((keywords.contains(lexeme) ? lexeme : "id"),lexeme);
+		while (!done()) {
+			byte c=classAt(pos);
+			if (c!=LETTER && c!=DIGIT)
+				break;
+			pos++;
+		}
+		int len=pos-old;
+		for (int kw: keywords)
+			if (Token.name(kw).length()==len && program.startsWith(Token.name(kw),old)) {
+				tokens.add(kw,old,pos,-1);
+				return kw;
+			}
+		tokens.add(Token.ID,old,pos,ids.intern(program,old,pos));
+		return Token.ID;
 	}
 
-	private void nextOp() {
+	private int nextOp(TokenBuffer tokens) {
 		int old=pos;
-		pos=old+2;
-		if (pos <= program.length()) { // Check 2-char operators
-			String lexeme=program.substring(old,pos);
-			if (operators.contains(lexeme)) {
-				token=new Token(lexeme); // two-char operator
-				return;
-			}
-		}
-		pos=old+1; // Fallback to 1-char operator
-		String lexeme=program.substring(old,pos);
-		token=new Token(lexeme);
+		char c=program.charAt(pos++);
+		char d=done() ? 0 : program.charAt(pos);
+		int kind=operators[c];
+		if (c=='<' && d=='=')
+			kind=Token.LE;
+		else if (c=='<' && d=='>')
+			kind=Token.NE;
+		else if (c=='>' && d=='=')
+			kind=Token.GE;
+		else if (c=='=' && d=='=')
+			kind=Token.EQ;
+		if (kind!=operators[c]) // two-char operator
+			pos++;
+		tokens.add(kind,old,pos,-1);
+		return kind;
 	}
 
 	/**
-	 * Advances the scanner to the next token in the program string.
+	 * Advances the scanner to the next token in the program string,
+	 * and appends it to a buffer.
 	 * It skips over whitespace and comments.
-	 * @return true if a token was found, false if the end of the program is reached.
+	 * @param tokens The buffer.
+	 * @return The token's kind: Token.EOF at the end of the program.
 	 */
-	public boolean next() {
+	public int next(TokenBuffer tokens) {
 		boolean ateComment;
 		do {
 			ateComment = false;
-			many(whitespace);
+			many(WHITESPACE);
+			program.release(pos);
 			if (done()) {
-				token=new Token("EOF");
-				return false;
+				tokens.add(Token.EOF,pos,pos,-1);
+				return Token.EOF;
 			}
 			// Check for '//' comment
 			if (program.startsWith("//", pos)) {
@@ -175,42 +196,43 @@ public class Scanner {
 			}
 		} while (ateComment); // Loop to handle multiple comment lines or whitespace
 
-		String c=program.charAt(pos)+"";
-		if (digits.contains(c))
-			nextNumber();
-		else if (letters.contains(c))
-			nextKwId();
-		else if (operators.contains(c))
-			nextOp();
-		else {
-			System.err.println("illegal character at position "+pos);
-			pos++;
-			return next();
-		}
-		return true;
+		byte c=classAt(pos);
+		if (c==DIGIT)
+			return nextNumber(tokens);
+		if (c==LETTER)
+			return nextKwId(tokens);
+		if (c==OPERATOR)
+			return nextOp(tokens);
+		err.println("illegal character at position "+pos);
+		pos++;
+		return next(tokens);
+	}
+
+	/**
+	 * Moves the scanner to a position, where scanning resumes.
+	 * @param pos The position, which must not be inside a token.
+	 */
+	public void seek(int pos) {
+		this.pos=pos;
 	}
 
 	/**
-	 * Matches the current token against an expected token.
-	 * If they match, it advances the scanner. If not, it throws a SyntaxException.
-	 * @param t The expected token.
-	 * @throws SyntaxException if the current token does not match the expected one.
+	 * Returns the identifiers seen so far.
+	 * @return The table of identifiers.
 	 */
-	public void match(Token t) throws SyntaxException {
-		if (!t.equals(curr()))
-			throw new SyntaxException(pos,t,curr());
-		next();
+	public Symbols ids() {
+		return ids;
 	}
 
 	/**
-	 * Returns the current token.
-	 * @return The current token.
-	 * @throws SyntaxException if no token has been scanned yet.
+	 * Returns the text of a token that has not been released yet,
+	 * e.g., the current token's.
+	 * @param start The position of its first character.
+	 * @param end The position after its last character.
+	 * @return The text.
 	 */
-	public Token curr() throws SyntaxException {
-		if (token==null)
-			throw new SyntaxException(pos,new Token("ANY"),new Token("EMPTY"));
-		return token;
+	public String lexeme(int start, int end) {
+		return program.substring(start,end);
 	}
 
 	/**
@@ -220,4 +242,4 @@ public class Scanner {
 	public int pos() {
 		return pos;
 	}
-}
\ No newline at end of file
+}
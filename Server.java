@@ -0,0 +1,182 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * A long-lived interpreter, listening on a Unix domain socket, so
+ * running a program does not pay for JVM startup and a cold JIT.
+ * Each connection is a session: the client sends its programs, then
+ * its stdin, and the server runs the programs as Main would, against
+ * the session's own Environment, sending back stdout and stderr.
+ * Sessions run on a cached pool of threads with Main's large stack,
+ * since running a program recurses on its AST.
+ * <p>
+ * A request is: the client's "Exec" and "Code" values (writeUTF, with ""
+ * for unset; Code as an absolute path), the number of programs (writeInt),
+ * each program (writeInt length, then UTF-8 bytes), and then stdin, until
+ * the client shuts down its output. The response is a sequence of frames:
+ * a tag (1 for stdout, 2 for stderr) then writeInt length and the bytes,
+ * ending with a tag of 0. A session that fails, e.g., with a
+ * StackOverflowError, reports it on stderr and ends without the 0,
+ * so the Client can tell. See Client. So does one whose "Exec" selects
+ * a mode a session cannot run: only Main.run()'s, the default, "jit",
+ * "vm", and "arena", can; the others, e.g., "pe", "native", or "batch",
+ * are rejected, rather than run as the default.
+ */
+public class Server {
+
+	static final int OUT=1;
+	static final int ERR=2;
+	static final int END=0;
+
+	/**
+	 * Returns the socket path: the "Socket" environment variable,
+	 * defaulting to ta1.sock in the temp directory.
+	 * @return The path.
+	 */
+	static Path socket() {
+		String s=System.getenv("Socket");
+		return s!=null
+			? Paths.get(s)
+			: Paths.get(System.getProperty("java.io.tmpdir"),"ta1.sock");
+	}
+
+	/**
+	 * Returns an executor that runs each task on a cached thread with
+	 * Main's large stack. Virtual threads are not used: their stacks
+	 * cannot be sized.
+	 * @return The executor.
+	 */
+	static ExecutorService sessions() {
+		return Executors.newCachedThreadPool(r -> {
+			Thread t=Main.thread(r);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * The server mode of Main: accepts sessions until killed.
+	 * A stale socket file, left by a server that died, is replaced.
+	 * @param args Ignored.
+	 * @throws IOException If the socket cannot be bound.
+	 */
+	public static void main(String[] args) throws IOException {
+		Path path=socket();
+		Files.deleteIfExists(path);
+		ExecutorService pool=sessions();
+		try (ServerSocketChannel server=ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			server.bind(UnixDomainSocketAddress.of(path));
+			path.toFile().deleteOnExit();
+			while (true) {
+				SocketChannel ch=server.accept();
+				pool.execute(() -> session(ch));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tells whether a session can run programs as an "Exec" value selects.
+	 * @param exec The value, or "" if unset.
+	 */
+	private static boolean runs(String exec) {
+		return exec.isEmpty() || exec.equals("jit") || exec.equals("vm") || exec.equals("arena");
+	}
+
+	/**
+	 * Runs one session, then closes its connection.
+	 * @param ch The connection.
+	 */
+	private static void session(SocketChannel ch) {
+		try (ch) {
+			InputStream in=Channels.newInputStream(ch);
+			DataInputStream req=new DataInputStream(in); // unbuffered: the rest is stdin
+			String exec=req.readUTF();
+			String fn=req.readUTF();
+			String[] progs=new String[req.readInt()];
+			for (int i=0; i<progs.length; i++)
+				progs[i]=new String(req.readNBytes(req.readInt()),StandardCharsets.UTF_8);
+			PrintStream out=new PrintStream(new Frames(ch,OUT),false,StandardCharsets.UTF_8);
+			PrintStream err=new PrintStream(new Frames(ch,ERR),false,StandardCharsets.UTF_8);
+			if (!runs(exec)) {
+				err.println("Exec="+exec+" cannot run in a server session");
+				err.flush();
+				return; // no END
+			}
+			try {
+				Environment env=new Environment(in,out);
+				String code=Main.run(exec.isEmpty() ? null : exec,progs,env,err);
+				out.flush();
+				if (!fn.isEmpty())
+					try {
+						new Code(fn+".c",code,env);
+					} catch (IOException e) {
+						err.println(e);
+					}
+			} catch (Throwable t) {
+				out.flush();
+				err.println(t);
+				err.flush();
+				return; // no END: the session failed
+			}
+			err.flush();
+			write(ch,ByteBuffer.wrap(new byte[] {END}));
+		} catch (IOException e) {
+			// the client went away
+		}
+	}
+
+	private static void write(SocketChannel ch, ByteBuffer b) throws IOException {
+		while (b.hasRemaining())
+			ch.write(b);
+	}
+
+	/**
+	 * An output stream that sends what is written as frames of one kind.
+	 * It buffers, and sends a frame when full or flushed.
+	 */
+	private static class Frames extends OutputStream {
+
+		private SocketChannel ch;
+		private ByteBuffer buf=ByteBuffer.allocate(8192);
+
+		Frames(SocketChannel ch, int tag) {
+			this.ch=ch;
+			buf.put((byte)tag).putInt(0);
+		}
+
+		public void write(int b) throws IOException {
+			if (!buf.hasRemaining())
+				flush();
+			buf.put((byte)b);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len>0) {
+				if (!buf.hasRemaining())
+					flush();
+				int n=Math.min(len,buf.remaining());
+				buf.put(b,off,n);
+				off+=n;
+				len-=n;
+			}
+		}
+
+		public void flush() throws IOException {
+			if (buf.position()==5)
+				return;
+			buf.putInt(1,buf.position()-5).flip();
+			Server.write(ch,buf);
+			buf.limit(buf.capacity()).position(5);
+		}
+
+	}
+
+}
@@ -0,0 +1,56 @@
+/**
+ * The resolution pass: gives each variable a program mentions its slot
+ * in an Environment, and records it in the NodeAssn, NodeRd, and
+ * NodeFactId nodes, so eval() reads and writes the slot directly.
+ * The programs passed to Main share one Environment, so a variable has
+ * the same slot in all of them. Resolved nodes must then be evaluated
+ * only against that Environment; unresolved ones work with any.
+ */
+public class Slots {
+
+	/**
+	 * Resolves the variables in a subtree.
+	 * @param n The root of the subtree, or null.
+	 * @param env The environment whose slots are used.
+	 */
+	public static void resolve(Node n, Environment env) {
+		if (n==null)
+			return;
+		if (n instanceof NodeBlock)
+			for (NodeStmt s: ((NodeBlock)n).getStmts())
+				resolve(s,env);
+		else if (n instanceof NodeStmt)
+			resolve(((NodeStmt)n).getStmt(),env);
+		else if (n instanceof NodeAssn) {
+			NodeAssn a=(NodeAssn)n;
+			a.setSlot(env.slot(a.getId()));
+			resolve(a.getExpr(),env);
+		} else if (n instanceof NodeRd)
+			((NodeRd)n).setSlot(env.slot(((NodeRd)n).getId()));
+		else if (n instanceof NodeWr)
+			resolve(((NodeWr)n).getExpr(),env);
+		else if (n instanceof NodeIf) {
+			resolve(((NodeIf)n).getBoolexpr(),env);
+			resolve(((NodeIf)n).getThenStmt(),env);
+			resolve(((NodeIf)n).getElseStmt(),env);
+		} else if (n instanceof NodeWhile) {
+			resolve(((NodeWhile)n).getBoolexpr(),env);
+			resolve(((NodeWhile)n).getStmt(),env);
+		} else if (n instanceof NodeBoolexpr) {
+			resolve(((NodeBoolexpr)n).getExpr1(),env);
+			resolve(((NodeBoolexpr)n).getExpr2(),env);
+		} else if (n instanceof NodeExpr)
+			for (NodeExpr e=(NodeExpr)n; e!=null; e=e.getExpr()) // a chain can be long
+				resolve(e.getTerm(),env);
+		else if (n instanceof NodeTerm)
+			for (NodeTerm t=(NodeTerm)n; t!=null; t=t.getTerm())
+				resolve(t.getFact(),env);
+		else if (n instanceof NodeFactExpr)
+			resolve(((NodeFactExpr)n).getExpr(),env);
+		else if (n instanceof NodeFactUnary)
+			resolve(((NodeFactUnary)n).getFact(),env);
+		else if (n instanceof NodeFactId)
+			((NodeFactId)n).setSlot(env.slot(((NodeFactId)n).getId()));
+	}
+
+}
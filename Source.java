@@ -0,0 +1,151 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * The text of a program, as the Scanner sees it: characters by
+ * absolute position, which need not all be in memory at once.
+ * A program can be a String, a Reader (read through a window that
+ * slides forward as the Scanner releases what it has scanned),
+ * or a memory-mapped file.
+ */
+public abstract class Source {
+
+	/**
+	 * Tells whether the program has a character at a position.
+	 * @param i The position.
+	 * @return true if i is before the end of the program.
+	 */
+	public abstract boolean has(int i);
+
+	/**
+	 * Returns the character at a position, which must exist.
+	 * @param i The position.
+	 * @return The character.
+	 */
+	public abstract char charAt(int i);
+
+	/**
+	 * Returns the characters in a range.
+	 * @param begin The position of the first character.
+	 * @param end The position after the last character.
+	 * @return The characters.
+	 */
+	public String substring(int begin, int end) {
+		StringBuilder s=new StringBuilder(end-begin);
+		for (int i=begin; i<end; i++)
+			s.append(charAt(i));
+		return s.toString();
+	}
+
+	/**
+	 * Tells whether the characters at a position are a given string.
+	 * @param s The string.
+	 * @param i The position.
+	 * @return true if they are.
+	 */
+	public boolean startsWith(String s, int i) {
+		for (int k=0; k<s.length(); k++)
+			if (!has(i+k) || charAt(i+k)!=s.charAt(k))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Tells the source that characters before a position will not be
+	 * asked for again, so it may drop them.
+	 * @param i The position.
+	 */
+	public void release(int i) {}
+
+	/**
+	 * Returns the source for a program in a String.
+	 * @param program The program.
+	 * @return The source.
+	 */
+	public static Source of(String program) {
+		return new Source() {
+			public boolean has(int i) { return i<program.length(); }
+			public char charAt(int i) { return program.charAt(i); }
+			public String substring(int begin, int end) { return program.substring(begin,end); }
+			public boolean startsWith(String s, int i) { return program.startsWith(s,i); }
+		};
+	}
+
+	/**
+	 * Returns the source for a program read from a Reader. Only the
+	 * characters from the oldest unreleased one onward are kept.
+	 * @param in The Reader, which is read as needed.
+	 * @return The source.
+	 */
+	public static Source of(Reader in) {
+		return new Source() {
+			private char[] buf=new char[8192];
+			private int base;		// position of buf[0]
+			private int len;		// characters in buf
+			private int keep;		// position of the oldest unreleased character
+			private boolean eof;
+			public boolean has(int i) {
+				while (i>=base+len && !eof)
+					fill();
+				return i<base+len;
+			}
+			public char charAt(int i) {
+				if (!has(i))
+					throw new IndexOutOfBoundsException(i);
+				return buf[i-base];
+			}
+			public void release(int i) {
+				keep=Math.max(keep,i);
+			}
+			private void fill() {
+				if (len==buf.length) {
+					int drop=Math.min(keep-base,len);
+					if (drop>0) {
+						System.arraycopy(buf,drop,buf,0,len-drop);
+						base+=drop;
+						len-=drop;
+					}
+					if (len==buf.length)
+						buf=java.util.Arrays.copyOf(buf,2*buf.length); // one long lexeme
+				}
+				try {
+					int n=in.read(buf,len,buf.length-len);
+					if (n<0)
+						eof=true;
+					else
+						len+=n;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the source for a program in a file, which is memory-mapped,
+	 * so the program is paged in by the OS rather than read into the heap.
+	 * The file is read as ISO-8859-1; programs are ASCII.
+	 * @param path The file, which must be smaller than 2GB.
+	 * @return The source.
+	 * @throws IOException If the file cannot be mapped.
+	 */
+	public static Source map(Path path) throws IOException {
+		MappedByteBuffer map;
+		try (FileChannel ch=FileChannel.open(path,StandardOpenOption.READ)) {
+			map=ch.map(FileChannel.MapMode.READ_ONLY,0,ch.size());
+		}
+		return new Source() {
+			public boolean has(int i) { return i<map.limit(); }
+			public char charAt(int i) { return (char)(map.get(i)&0xff); }
+			public String substring(int begin, int end) {
+				byte[] b=new byte[end-begin];
+				map.get(begin,b);
+				return new String(b,StandardCharsets.ISO_8859_1);
+			}
+		};
+	}
+
+}
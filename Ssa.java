@@ -0,0 +1,1034 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An optimization pass, run after Optimizer, over a program in SSA form.
+ * The program is lowered to a control-flow graph of basic blocks, whose
+ * statements are kept as expression trees, each node numbered with an
+ * SSA Value: a variable's read is the Value last assigned to it, and
+ * where paths join (after a NodeIf, and at a NodeWhile's header),
+ * differing Values meet in a PHI. The passes then mark up the trees,
+ * and the marked-up graph is raised back into an AST, which eval() and
+ * code() run as usual:
+ * <ul>
+ * <li>Global value numbering: a pure operation on the same Values is
+ * the same Value, and on constant Values it is folded, with the
+ * operators' own arithmetic, so a variable known to hold a constant is
+ * folded too, and a NodeIf whose condition is then known is the branch taken.</li>
+ * <li>Strength reduction: in a loop counting an induction variable i
+ * up (or down) by an integer step, to a constant bound, a product i*k,
+ * with k an integer, becomes a temporary, started at the loop's entry
+ * and stepped by step*k at the end of each iteration. Only products
+ * that fit in a double's 53 bits, at every value i can take, are
+ * reduced, so the sums are exact; and only those that occur at least
+ * twice, since a tree-walker spends as much on the update as on a multiply.</li>
+ * <li>Loop-invariant code motion: an operation whose Values are defined
+ * outside a loop, on variables the loop does not assign, is computed
+ * once, into a temporary, before the loop.</li>
+ * <li>Common subexpressions: an operation whose Value was computed earlier,
+ * in a block that dominates it, reads the temporary that computation
+ * was stored in.</li>
+ * <li>Dead store elimination: an assignment is removed if the variable
+ * is assigned again, on every path, before it is read; then so is any
+ * temporary that only it read.</li>
+ * </ul>
+ * Every variable is observable at the end of a program, by later
+ * programs and by the C declarations, and wherever a program may stop:
+ * at a read of a variable that may be undefined, and at a 'rd', which
+ * may run out of input. Such a read is never moved, nor anything that
+ * depends on it, so an undefined variable is reported at the same
+ * position, after the same output; and 'rd' and 'wr' are never moved,
+ * so the sequence of inputs and outputs is unchanged.
+ * Temporaries are named "_t1", "_t2", and so on, which the scanner
+ * cannot produce; each is defined by one NodeDecl, which dominates its uses.
+ * Programs of more than limit Values are returned as they are, since
+ * liveness costs a pass over every block for every variable.
+ */
+public class Ssa {
+
+	// kinds of Expr and Value
+
+	private static final int NUM=0;
+	private static final int VAR=1;
+	private static final int NEG=2;
+	private static final int ADD=3;
+	private static final int SUB=4;
+	private static final int MUL=5;
+	private static final int DIV=6;
+	private static final int CMP=7;
+	private static final int PHI=8;		// the rest are Values only
+	private static final int LOAD=9;	// a variable's value from before the program
+	private static final int RD=10;
+
+	// kinds of Instr
+
+	private static final int ASSN=0;
+	private static final int READ=1;
+	private static final int WRITE=2;
+	private static final int DECL=3;	// a temporary's definition
+	private static final int SET=4;		// a temporary's update
+
+	private static final double exact=0x1p53; // integers up to this are exact doubles
+	private static final int limit=1<<16;
+
+	private static final AtomicInteger temps=new AtomicInteger();
+
+	/**
+	 * An SSA Value. Values of pure operations are hash-consed, so the
+	 * same operation on the same Values is the same Value. A PHI, LOAD,
+	 * or RD is a new Value each time, and records the loop it is in.
+	 */
+	private static class Value {
+		private int op;
+		private double num;
+		private Value l, r;		// operands: a PHI's entry and back-edge, or then and else, Values
+		private String relop;
+		private Loop loop;
+		private int id;
+		public boolean equals(Object o) {
+			Value v=(Value)o;
+			return this==v || op<PHI && op==v.op && l==v.l && r==v.r && Objects.equals(relop,v.relop)
+				&& Double.doubleToRawLongBits(num)==Double.doubleToRawLongBits(v.num);
+		}
+		public int hashCode() {
+			if (op>=PHI)
+				return id;
+			long bits=Double.doubleToRawLongBits(num);
+			int h=op;
+			h=31*h+(l==null ? -1 : l.id);
+			h=31*h+(r==null ? -1 : r.id);
+			h=31*h+(relop==null ? 0 : relop.hashCode());
+			return 31*h+(int)(bits^bits>>>32);
+		}
+	}
+
+	/**
+	 * An occurrence of an expression in the program, with its Value.
+	 */
+	private static class Expr {
+		private int op;
+		private String name;		// a VAR's variable; a NUM's literal, if it is from the source
+		private int var=-1;			// a VAR's index, unless it is a temporary
+		private String relop;
+		private int pos;
+		private Expr l, r;
+		private Value v;			// null in a temporary's update, which is built after numbering
+		private boolean failing;	// reads a variable that may be undefined
+		private boolean late;		// failing, or reads one its statement has already
+		private String temp;		// the temporary holding its Value, if any
+		private boolean def;		// true if it is computed here, into temp
+		Expr(int op) {
+			this.op=op;
+		}
+	}
+
+	private static class Instr {
+		private int kind;
+		private String var;
+		private int index;		// an ASSN's variable's
+		private Expr e;
+		private boolean dead;
+		Instr(int kind, String var, Expr e) {
+			this.kind=kind;
+			this.var=var;
+			this.e=e;
+		}
+	}
+
+	private static class Block {
+		private List<Instr> instrs=new ArrayList<>();
+		private List<Block> succs=new ArrayList<>();
+		private Expr cond;				// the branch's condition, after instrs
+		private BitSet live=new BitSet();	// the variables live on entry
+		private BitSet gen, kill;		// those it reads before assigning, and those it assigns
+	}
+
+	private static class Loop {
+		private Loop parent;
+		private Block pre;				// runs once, before the header
+		private Block latch;			// ends each iteration
+		private Expr cond;
+		private Region body;
+		private Set<String> assigned=new HashSet<>();
+		private Map<String,Value> phis=new LinkedHashMap<>();
+	}
+
+	/**
+	 * Structured code: a basic block, a sequence, a loop, or an if.
+	 */
+	private static class Region {
+		private Block block;
+		private List<Region> seq;
+		private Loop loop;
+		private Expr cond;
+		private Region then, els;
+	}
+
+	private Map<Value,Value> values=new HashMap<>();	// pure Values
+	private Map<String,Integer> vars=new HashMap<>();	// variable -> index, in cur and in liveness
+	private Value[] cur=new Value[16];					// by variable: its Value, if it is defined
+	private List<Block> blocks=new ArrayList<>();
+	private List<Loop> loops=new ArrayList<>();			// outer loops first
+	private Block block;
+	private Loop loop;
+	private int ids;
+	private int stmt;										// the first Value id of the statement being built
+	private Map<Value,Expr> avail=new HashMap<>();		// computations, for common subexpressions
+	private List<Value> scope=new ArrayList<>();		// avail's keys, in order, so scopes can be left
+	private boolean killed;
+
+	/**
+	 * Optimizes a program.
+	 * @param n The root of the program's AST.
+	 * @return The root of the optimized AST.
+	 */
+	public static Node optimize(Node n) {
+		if (!(n instanceof NodeBlock))
+			return n;
+		Ssa ssa=new Ssa();
+		ssa.block=ssa.block();
+		Region root=ssa.seq(n);
+		if (ssa.ids>limit)
+			return n;
+		Block exit=ssa.block;
+		for (int i=ssa.loops.size()-1; i>=0; i--)
+			ssa.reduce(ssa.loops.get(i));
+		for (int i=ssa.loops.size()-1; i>=0; i--)
+			ssa.hoist(ssa.loops.get(i));
+		ssa.cse(root);
+		ssa.dse(exit);
+		ssa.prune();
+		List<NodeStmt> stmts=new ArrayList<>();
+		ssa.lower(root,stmts);
+		NodeBlock block=new NodeBlock();
+		for (NodeStmt s: stmts)
+			block.addStmt(s);
+		return block;
+	}
+
+	// building the graph, and numbering
+
+	private Block block() {
+		Block b=new Block();
+		blocks.add(b);
+		return b;
+	}
+
+	private Value value(int op) {
+		Value v=new Value();
+		v.op=op;
+		v.loop=loop;
+		v.id=ids++;
+		return v;
+	}
+
+	private static Region code(Block b) {
+		Region r=new Region();
+		r.block=b;
+		return r;
+	}
+
+	/**
+	 * Builds a statement, starting in the current block.
+	 */
+	private Region seq(Node n) {
+		Region r=new Region();
+		r.seq=new ArrayList<>();
+		r.seq.add(code(block));
+		stmt(n,r.seq);
+		return r;
+	}
+
+	private void stmt(Node n, List<Region> seq) {
+		if (n instanceof NodeStmt)
+			stmt(((NodeStmt)n).getStmt(),seq);
+		else if (n instanceof NodeBlock)
+			for (NodeStmt s: ((NodeBlock)n).getStmts())
+				stmt(s.getStmt(),seq);
+		else if (n instanceof NodeAssn) {
+			NodeAssn a=(NodeAssn)n;
+			stmt=ids;
+			Expr e=expr(a.getExpr());
+			Instr in=new Instr(ASSN,a.getId(),e);
+			in.index=assign(a.getId(),e.v);
+			block.instrs.add(in);
+		} else if (n instanceof NodeRd) {
+			String id=((NodeRd)n).getId();
+			block.instrs.add(new Instr(READ,id,null));
+			assign(id,value(RD));
+		} else if (n instanceof NodeWr) {
+			stmt=ids;
+			block.instrs.add(new Instr(WRITE,null,expr(((NodeWr)n).getExpr())));
+		} else if (n instanceof NodeIf)
+			ifStmt((NodeIf)n,seq);
+		else
+			whileStmt((NodeWhile)n,seq);
+	}
+
+	private int assign(String var, Value v) {
+		Integer i=vars.get(var);
+		if (i==null) {
+			i=vars.size();
+			vars.put(var,i);
+		}
+		if (i>=cur.length)
+			cur=Arrays.copyOf(cur,Math.max(2*cur.length,i+1));
+		cur[i]=v;
+		return i;
+	}
+
+	private Value get(String var) {
+		Integer i=vars.get(var);
+		return i==null || i>=cur.length ? null : cur[i];
+	}
+
+	private void ifStmt(NodeIf n, List<Region> seq) {
+		Expr cond=cond(n.getBoolexpr());
+		if (cond.v.op==NUM) { // known, from what its variables hold
+			Node taken=cond.v.num==1.0 ? n.getThenStmt() : n.getElseStmt();
+			if (taken!=null)
+				stmt(taken,seq);
+			return;
+		}
+		Block head=block;
+		head.cond=cond;
+		Value[] before=cur.clone();
+		Region r=new Region();
+		r.cond=cond;
+		block=block();
+		head.succs.add(block);
+		r.then=seq(n.getThenStmt());
+		Block thenEnd=block;
+		Value[] then=cur;
+		cur=before;
+		block=block();
+		head.succs.add(block);
+		if (n.getElseStmt()!=null)
+			r.els=seq(n.getElseStmt());
+		Block elseEnd=block;
+		block=block();
+		thenEnd.succs.add(block);
+		elseEnd.succs.add(block);
+		cur=merge(then,cur);
+		seq.add(r);
+		seq.add(code(block));
+	}
+
+	/**
+	 * Joins two paths' variables. One that is undefined on either path
+	 * must be read from the environment, which may fail.
+	 */
+	private Value[] merge(Value[] a, Value[] b) {
+		Value[] m=new Value[Math.max(a.length,b.length)];
+		for (int i=0; i<a.length && i<b.length; i++) {
+			Value v=b[i];
+			if (a[i]!=null && v!=null && a[i]!=v) {
+				v=value(PHI);
+				v.l=a[i];
+				v.r=b[i];
+			}
+			m[i]=a[i]==null ? null : v;
+		}
+		return m;
+	}
+
+	private void whileStmt(NodeWhile n, List<Region> seq) {
+		Loop l=new Loop();
+		l.parent=loop;
+		loops.add(l);
+		assigned(n.getStmt(),l.assigned);
+		l.pre=block();
+		block.succs.add(l.pre);
+		Block header=block();
+		l.pre.succs.add(header);
+		loop=l;
+		for (String var: l.assigned) {
+			Value v=get(var);
+			if (v!=null) {
+				Value phi=value(PHI);
+				phi.l=v;
+				assign(var,phi);
+				l.phis.put(var,phi);
+			}
+		}
+		block=header;
+		l.cond=cond(n.getBoolexpr());
+		header.cond=l.cond;
+		Value[] exit=cur.clone();
+		block=block();
+		header.succs.add(block);
+		l.body=seq(n.getStmt());
+		l.latch=block();
+		block.succs.add(l.latch);
+		l.latch.succs.add(header);
+		l.body.seq.add(code(l.latch));
+		for (Map.Entry<String,Value> e: l.phis.entrySet())
+			e.getValue().r=get(e.getKey());
+		loop=l.parent;
+		block=block();
+		header.succs.add(block);
+		cur=exit;
+		Region r=new Region();
+		r.loop=l;
+		seq.add(r);
+		seq.add(code(block));
+	}
+
+	private static void assigned(Node n, Set<String> vars) {
+		if (n instanceof NodeStmt)
+			assigned(((NodeStmt)n).getStmt(),vars);
+		else if (n instanceof NodeBlock)
+			for (NodeStmt s: ((NodeBlock)n).getStmts())
+				assigned(s,vars);
+		else if (n instanceof NodeAssn)
+			vars.add(((NodeAssn)n).getId());
+		else if (n instanceof NodeRd)
+			vars.add(((NodeRd)n).getId());
+		else if (n instanceof NodeIf) {
+			assigned(((NodeIf)n).getThenStmt(),vars);
+			assigned(((NodeIf)n).getElseStmt(),vars);
+		} else if (n instanceof NodeWhile)
+			assigned(((NodeWhile)n).getStmt(),vars);
+	}
+
+	private Expr cond(NodeBoolexpr b) {
+		stmt=ids;
+		Expr e=new Expr(CMP);
+		e.l=expr(b.getExpr1());
+		e.relop=b.getRelop().getOp();
+		e.pos=b.getRelop().pos;
+		e.r=expr(b.getExpr2());
+		return op(e);
+	}
+
+	private Expr expr(NodeExpr n) {
+		List<NodeExpr> chain=new ArrayList<>(); // leftmost term first
+		for (NodeExpr x=n; x!=null; x=x.getExpr())
+			chain.add(x);
+		Expr e=null;
+		for (int i=chain.size()-1; i>=0; i--) {
+			NodeExpr x=chain.get(i);
+			Expr t=term(x.getTerm());
+			e=x.getAddop()==null ? t : binary(x.getAddop().getOp().equals("+") ? ADD : SUB,
+				x.getAddop().pos,e,t);
+		}
+		return e;
+	}
+
+	private Expr term(NodeTerm n) {
+		List<NodeTerm> chain=new ArrayList<>();
+		for (NodeTerm x=n; x!=null; x=x.getTerm())
+			chain.add(x);
+		Expr e=null;
+		for (int i=chain.size()-1; i>=0; i--) {
+			NodeTerm x=chain.get(i);
+			Expr f=fact(x.getFact());
+			e=x.getMulop()==null ? f : binary(x.getMulop().getOp().equals("*") ? MUL : DIV,
+				x.getMulop().pos,e,f);
+		}
+		return e;
+	}
+
+	private Expr fact(NodeFact f) {
+		if (f instanceof NodeFactNum) {
+			Expr e=new Expr(NUM);
+			e.name=((NodeFactNum)f).getNum();
+			e.v=num(((NodeFactNum)f).getVal());
+			return e;
+		}
+		if (f instanceof NodeFactId) {
+			Expr e=new Expr(VAR);
+			e.name=((NodeFactId)f).getId();
+			e.pos=f.pos;
+			e.v=get(e.name);
+			if (e.v==null) { // from before the program, if at all
+				e.failing=true;
+				e.v=value(LOAD);
+				assign(e.name,e.v);
+			}
+			e.var=vars.get(e.name);
+			e.late=e.v.op==LOAD && e.v.id>=stmt;
+			return e;
+		}
+		if (f instanceof NodeFactUnary) {
+			Expr e=new Expr(NEG);
+			e.pos=f.pos;
+			e.l=fact(((NodeFactUnary)f).getFact());
+			return op(e);
+		}
+		return expr(((NodeFactExpr)f).getExpr());
+	}
+
+	private Expr binary(int op, int pos, Expr l, Expr r) {
+		Expr e=new Expr(op);
+		e.pos=pos;
+		e.l=l;
+		e.r=r;
+		return op(e);
+	}
+
+	/**
+	 * Numbers an operation, once its operands are.
+	 */
+	private Expr op(Expr e) {
+		e.failing=e.l.failing || e.r!=null && e.r.failing;
+		e.late=e.l.late || e.r!=null && e.r.late;
+		Value l=e.l.v;
+		Value r=e.r==null ? null : e.r.v;
+		if (l.op==NUM && (r==null || r.op==NUM)) {
+			Double d=fold(e.op,e.relop,l.num,r==null ? 0 : r.num);
+			if (d!=null) {
+				e.v=num(d);
+				return e;
+			}
+		}
+		Value v=new Value();
+		v.op=e.op;
+		v.l=l;
+		v.r=r;
+		v.relop=e.relop;
+		e.v=intern(v);
+		return e;
+	}
+
+	private Value num(double d) {
+		Value v=new Value();
+		v.op=NUM;
+		v.num=d;
+		return intern(v);
+	}
+
+	/**
+	 * Numbers a pure Value: returns the same Value, if there is one.
+	 */
+	private Value intern(Value v) {
+		Value old=values.get(v);
+		if (old!=null)
+			return old;
+		v.id=ids++;
+		values.put(v,v);
+		return v;
+	}
+
+	private static Double fold(int op, String relop, double a, double b) {
+		switch (op) {
+		case NEG:
+			return -a;
+		case ADD:
+			return a+b;
+		case SUB:
+			return a-b;
+		case MUL:
+			return a*b;
+		case DIV:
+			return a/b;
+		default:
+			return NodeRelop.of(0,relop).test(a,b) ? 1.0 : 0.0;
+		}
+	}
+
+	// walking a loop's expressions
+
+	private interface Visitor {
+		void visit(Expr e);
+	}
+
+	private static void visit(Loop l, Visitor v) {
+		v.visit(l.cond);
+		visit(l.body,v);
+	}
+
+	private static void visit(Region r, Visitor v) {
+		if (r==null)
+			return;
+		if (r.block!=null) {
+			for (Instr i: r.block.instrs)
+				if (i.e!=null)
+					v.visit(i.e);
+		} else if (r.seq!=null)
+			for (Region s: r.seq)
+				visit(s,v);
+		else if (r.loop!=null) {
+			for (Instr i: r.loop.pre.instrs)
+				v.visit(i.e);
+			visit(r.loop,v);
+		} else {
+			v.visit(r.cond);
+			visit(r.then,v);
+			visit(r.els,v);
+		}
+	}
+
+	private static String temp() {
+		return "_t"+temps.incrementAndGet();
+	}
+
+	private Expr constant(double d) {
+		Expr e=new Expr(NUM);
+		e.v=num(d);
+		return e;
+	}
+
+	private static boolean integral(double d) {
+		return d==Math.rint(d) && Math.abs(d)<=exact;
+	}
+
+	// strength reduction
+
+	private void reduce(Loop l) {
+		Value cond=l.cond.v;
+		for (Value phi: l.phis.values()) {
+			Value init=phi.l;
+			Value back=phi.r;
+			if (init.op!=NUM || !integral(init.num) || back==null)
+				continue;
+			double step;
+			if (back.op==ADD && back.l==phi && back.r.op==NUM)
+				step=back.r.num;
+			else if (back.op==ADD && back.r==phi && back.l.op==NUM)
+				step=back.l.num;
+			else if (back.op==SUB && back.l==phi && back.r.op==NUM)
+				step=-back.r.num;
+			else
+				continue;
+			if (step==0 || !integral(step))
+				continue;
+			// the loop runs while phi is below (or above) a bound
+			if (cond.op!=CMP || cond.l!=phi || cond.r.op!=NUM || !Double.isFinite(cond.r.num))
+				continue;
+			String relop=cond.relop;
+			if (step>0 ? !relop.equals("<") && !relop.equals("<=")
+					: !relop.equals(">") && !relop.equals(">="))
+				continue;
+			double bound=Math.max(Math.abs(init.num),Math.abs(cond.r.num)+Math.abs(step));
+			Map<Value,List<Expr>> products=new LinkedHashMap<>();
+			visit(l,e -> products(e,phi,bound,products));
+			for (Map.Entry<Value,List<Expr>> p: products.entrySet()) {
+				if (p.getValue().size()<2)
+					continue;
+				Value v=p.getKey();
+				double k=(v.l==phi ? v.r : v.l).num;
+				String t=temp();
+				l.pre.instrs.add(new Instr(DECL,t,constant(init.num*k)));
+				Expr update=new Expr(ADD);
+				update.l=new Expr(VAR);
+				update.l.name=t;
+				update.r=constant(step*k);
+				l.latch.instrs.add(new Instr(SET,t,update));
+				for (Expr e: p.getValue())
+					e.temp=t;
+			}
+		}
+	}
+
+	private static void products(Expr e, Value phi, double bound, Map<Value,List<Expr>> products) {
+		if (e==null || e.temp!=null || e.v==null)
+			return;
+		if (e.op==MUL && e.v.op==MUL) {
+			Value k=e.v.l==phi ? e.v.r : e.v.r==phi ? e.v.l : null;
+			if (k!=null && k.op==NUM && integral(k.num) && bound*Math.abs(k.num)<=exact) {
+				products.computeIfAbsent(e.v,v -> new ArrayList<>()).add(e);
+				return;
+			}
+		}
+		products(e.l,phi,bound,products);
+		products(e.r,phi,bound,products);
+	}
+
+	// loop-invariant code motion
+
+	private void hoist(Loop l) {
+		Map<Value,String> hoisted=new HashMap<>();
+		visit(l,e -> hoist(e,l,hoisted));
+	}
+
+	private void hoist(Expr e, Loop l, Map<Value,String> hoisted) {
+		if (e==null || e.temp!=null || e.v==null)
+			return;
+		if (e.op>=ADD && e.op<=DIV && !e.failing && e.v.op!=NUM && invariant(e,l)) {
+			String t=hoisted.get(e.v);
+			if (t==null) {
+				t=temp();
+				hoisted.put(e.v,t);
+				l.pre.instrs.add(new Instr(DECL,t,copy(e)));
+			}
+			e.temp=t;
+			return;
+		}
+		hoist(e.l,l,hoisted);
+		hoist(e.r,l,hoisted);
+	}
+
+	/**
+	 * Tells whether an expression computes the same in every iteration
+	 * of a loop, and before it: its variables are not assigned in the
+	 * loop, nor read from the environment in it.
+	 */
+	private static boolean invariant(Expr e, Loop l) {
+		if (e.op==NUM)
+			return true;
+		if (e.op==VAR) {
+			if (l.assigned.contains(e.name))
+				return false;
+			for (Loop x=e.v.loop; x!=null; x=x.parent)
+				if (x==l && e.v.op>=PHI)
+					return false;
+			return true;
+		}
+		return invariant(e.l,l) && (e.r==null || invariant(e.r,l));
+	}
+
+	/**
+	 * Copies an expression, without its temporaries,
+	 * which may not be defined where the copy is.
+	 */
+	private static Expr copy(Expr e) {
+		if (e==null)
+			return null;
+		Expr c=new Expr(e.op);
+		c.name=e.name;
+		c.var=e.var;
+		c.relop=e.relop;
+		c.pos=e.pos;
+		c.v=e.v;
+		c.failing=e.failing;
+		c.late=e.late;
+		c.l=copy(e.l);
+		c.r=copy(e.r);
+		return c;
+	}
+
+	// common subexpressions
+
+	private void cse(Region r) {
+		if (r==null)
+			return;
+		if (r.block!=null)
+			cse(r.block.instrs);
+		else if (r.seq!=null)
+			for (Region s: r.seq)
+				cse(s);
+		else if (r.loop!=null) {
+			cse(r.loop.pre.instrs);
+			cse(r.loop.cond,false); // a condition has nowhere to compute a temporary
+			scoped(r.loop.body);
+		} else {
+			cse(r.cond,true);
+			scoped(r.then);
+			scoped(r.els);
+		}
+	}
+
+	private void cse(List<Instr> instrs) {
+		for (Instr i: instrs) {
+			if (i.kind==DECL && i.e.op>=ADD && i.e.op<=DIV && avail.get(i.e.v)==null) {
+				// the temporary already holds it
+				Expr held=new Expr(i.e.op);
+				held.temp=i.var;
+				cse(i.e.l,true);
+				cse(i.e.r,true);
+				avail.put(i.e.v,held);
+				scope.add(i.e.v);
+			} else
+				cse(i.e,true);
+		}
+	}
+
+	/**
+	 * Finds common subexpressions in a region that other code
+	 * after it does not see: a branch, or a loop's body.
+	 */
+	private void scoped(Region r) {
+		int mark=scope.size();
+		cse(r);
+		while (scope.size()>mark)
+			avail.remove(scope.remove(scope.size()-1));
+	}
+
+	private void cse(Expr e, boolean def) {
+		if (e==null || e.temp!=null || e.v==null)
+			return;
+		if (e.op>=ADD && e.op<=DIV && !e.failing && e.v.op!=NUM) {
+			Expr first=avail.get(e.v);
+			if (first!=null) {
+				if (first.temp==null) {
+					first.temp=temp();
+					first.def=true;
+				}
+				e.temp=first.temp;
+				return;
+			}
+			if (def && !e.late) { // computable before its statement
+				avail.put(e.v,e);
+				scope.add(e.v);
+			}
+		}
+		cse(e.l,def);
+		cse(e.r,def);
+	}
+
+	// dead store elimination
+
+	private void dse(Block exit) {
+		int n=vars.size();
+		BitSet live=new BitSet();
+		do {
+			for (Block b: blocks) {
+				b.live.clear();
+				b.gen=new BitSet();
+				transfer(b,b.gen,false);
+				b.kill=new BitSet();
+				b.kill.set(0,n);
+				transfer(b,b.kill,false);
+				b.kill.flip(0,n);
+			}
+			boolean changed=true;
+			while (changed) {
+				changed=false;
+				for (int i=blocks.size()-1; i>=0; i--) {
+					Block b=blocks.get(i);
+					out(b,exit,live);
+					live.andNot(b.kill);
+					live.or(b.gen);
+					if (!live.equals(b.live)) {
+						b.live.clear();
+						b.live.or(live);
+						changed=true;
+					}
+				}
+			}
+			killed=false;
+			for (Block b: blocks)
+				transfer(b,out(b,exit,live),true);
+		} while (killed);
+	}
+
+	/**
+	 * Finds the variables live on exit from a block.
+	 * @param out Where they are put.
+	 */
+	private BitSet out(Block b, Block exit, BitSet out) {
+		out.clear();
+		if (b==exit)
+			out.set(0,vars.size());
+		for (Block s: b.succs)
+			out.or(s.live);
+		return out;
+	}
+
+	/**
+	 * Finds the variables live on entry to a block, from those live on exit.
+	 * Without kill, it finds gen, from none, and, from all, all but kill.
+	 * @param live The variables live on exit, which become those live on entry.
+	 * @param kill true to mark the dead stores found on the way.
+	 */
+	private void transfer(Block b, BitSet live, boolean kill) {
+		if (b.cond!=null)
+			uses(b.cond,live);
+		for (int i=b.instrs.size()-1; i>=0; i--) {
+			Instr in=b.instrs.get(i);
+			if (in.dead)
+				continue;
+			if (in.kind==READ) { // may fail
+				live.set(0,vars.size());
+				continue;
+			}
+			if (in.kind==ASSN) {
+				if (kill && !live.get(in.index) && !in.e.failing && !defines(in.e)) {
+					in.dead=true;
+					killed=true;
+					continue;
+				}
+				live.clear(in.index);
+			}
+			uses(in.e,live);
+		}
+	}
+
+	private void uses(Expr e, BitSet live) {
+		if (e.failing)
+			live.set(0,vars.size());
+		else
+			reads(e,live);
+	}
+
+	/**
+	 * Adds the variables an expression reads, as it is raised.
+	 */
+	private void reads(Expr e, BitSet live) {
+		if (e==null || e.temp!=null && !e.def || folded(e))
+			return;
+		if (e.var>=0)
+			live.set(e.var);
+		reads(e.l,live);
+		reads(e.r,live);
+	}
+
+	private static boolean defines(Expr e) {
+		return e!=null && (e.def || defines(e.l) || defines(e.r));
+	}
+
+	// unused temporaries
+
+	/**
+	 * Drops the temporaries nothing reads any more, e.g., one hoisted out
+	 * of a loop for a store dse() has removed: its DECL (and SET) is
+	 * removed, or, if it is computed in an expression, that is raised in place.
+	 */
+	private void prune() {
+		for (boolean pruned=true; pruned; ) {
+			Set<String> read=new HashSet<>();
+			List<Expr> defs=new ArrayList<>();
+			for (Block b: blocks) {
+				for (Instr i: b.instrs)
+					if (!i.dead && i.kind!=SET) // an update reads only its own temporary
+						temps(i.e,read,defs);
+				if (b.cond!=null)
+					temps(b.cond,read,defs);
+			}
+			pruned=false;
+			for (Block b: blocks)
+				for (Instr i: b.instrs)
+					if (!i.dead && (i.kind==DECL || i.kind==SET) && !read.contains(i.var))
+						pruned=i.dead=true;
+			for (Expr e: defs)
+				if (!read.contains(e.temp)) {
+					e.temp=null;
+					e.def=false;
+					pruned=true;
+				}
+		}
+	}
+
+	/**
+	 * Finds the temporaries an expression reads, as it is raised,
+	 * and the expressions in it that compute one.
+	 */
+	private static void temps(Expr e, Set<String> read, List<Expr> defs) {
+		if (e==null || folded(e))
+			return;
+		if (e.temp!=null && !e.def) {
+			read.add(e.temp);
+			return;
+		}
+		if (e.def)
+			defs.add(e);
+		else if (e.op==VAR)
+			read.add(e.name);
+		temps(e.l,read,defs);
+		temps(e.r,read,defs);
+	}
+
+	// raising the graph back into an AST
+
+	private static boolean folded(Expr e) {
+		return e.op!=NUM && e.v!=null && e.v.op==NUM && Double.isFinite(e.v.num);
+	}
+
+	private void lower(Region r, List<NodeStmt> out) {
+		if (r==null)
+			return;
+		if (r.block!=null)
+			for (Instr i: r.block.instrs)
+				lower(i,out);
+		else if (r.seq!=null)
+			for (Region s: r.seq)
+				lower(s,out);
+		else if (r.loop!=null) {
+			for (Instr i: r.loop.pre.instrs)
+				lower(i,out);
+			out.add(new NodeStmt(new NodeWhile(boolexpr(r.loop.cond),body(r.loop.body))));
+		} else {
+			defs(r.cond,out);
+			out.add(new NodeStmt(new NodeIf(boolexpr(r.cond),body(r.then),
+				r.els==null ? null : body(r.els))));
+		}
+	}
+
+	private void lower(Instr i, List<NodeStmt> out) {
+		if (i.dead)
+			return;
+		defs(i.e,out);
+		switch (i.kind) {
+		case ASSN:
+		case SET:
+			out.add(new NodeStmt(new NodeAssn(i.var,expr(i.e,false))));
+			break;
+		case DECL:
+			out.add(new NodeStmt(new NodeDecl(i.var,expr(i.e,false))));
+			break;
+		case READ:
+			out.add(new NodeStmt(new NodeRd(i.var)));
+			break;
+		default:
+			out.add(new NodeStmt(new NodeWr(expr(i.e,false))));
+		}
+	}
+
+	/**
+	 * Raises a region that must be one statement, e.g., a loop body.
+	 */
+	private NodeStmt body(Region r) {
+		List<NodeStmt> stmts=new ArrayList<>();
+		lower(r,stmts);
+		if (stmts.size()==1)
+			return stmts.get(0);
+		NodeBlock block=new NodeBlock();
+		for (NodeStmt s: stmts)
+			block.addStmt(s);
+		return new NodeStmt(block);
+	}
+
+	/**
+	 * Defines the temporaries computed in an expression, innermost first.
+	 */
+	private void defs(Expr e, List<NodeStmt> out) {
+		if (e==null || e.temp!=null && !e.def || folded(e))
+			return;
+		defs(e.l,out);
+		defs(e.r,out);
+		if (e.def)
+			out.add(new NodeStmt(new NodeDecl(e.temp,expr(e,true))));
+	}
+
+	private NodeBoolexpr boolexpr(Expr e) {
+		return new NodeBoolexpr(expr(e.l,false),NodeRelop.of(e.pos,e.relop),expr(e.r,false));
+	}
+
+	/**
+	 * Tells whether an expression is raised as a single fact.
+	 * @param self true if it is being computed into its temporary.
+	 */
+	private static boolean leaf(Expr e, boolean self) {
+		return e.temp!=null && !(self && e.def) || folded(e) || e.op==NUM || e.op==VAR;
+	}
+
+	private NodeExpr expr(Expr e, boolean self) {
+		if (!leaf(e,self) && (e.op==ADD || e.op==SUB))
+			return new NodeExpr(term(e.r,false),NodeAddop.of(e.pos,e.op==ADD ? "+" : "-"),
+				expr(e.l,false));
+		return new NodeExpr(term(e,self),null,null);
+	}
+
+	private NodeTerm term(Expr e, boolean self) {
+		if (!leaf(e,self) && (e.op==MUL || e.op==DIV))
+			return new NodeTerm(fact(e.r,false),NodeMulop.of(e.pos,e.op==MUL ? "*" : "/"),
+				term(e.l,false));
+		return new NodeTerm(fact(e,self),null,null);
+	}
+
+	private NodeFact fact(Expr e, boolean self) {
+		if (e.temp!=null && !(self && e.def))
+			return new NodeFactId(0,e.temp);
+		if (folded(e))
+			return PartialEval.literal(e.v.num);
+		if (e.op==NUM)
+			return e.name!=null ? new NodeFactNum(e.name) : PartialEval.literal(e.v.num);
+		if (e.op==VAR)
+			return new NodeFactId(e.pos,e.name);
+		if (e.op==NEG)
+			return new NodeFactUnary(e.pos,fact(e.l,false));
+		return new NodeFactExpr(expr(e,self));
+	}
+
+}
@@ -0,0 +1,101 @@
+import java.util.Arrays;
+
+/**
+ * An interned symbol table: each distinct name gets a stable int id,
+ * in the order first seen, and a single String.
+ * Names can be interned straight from a Source, so a name that has
+ * been seen before costs no allocation.
+ */
+public class Symbols {
+
+	private String[] names=new String[16];
+	private int[] hashes=new int[16];
+	private int size;
+	private int[] table=new int[32];	// open addressing: id+1, or 0 if empty
+
+	/**
+	 * Interns the characters in a range of a source.
+	 * @param src The source.
+	 * @param begin The position of the first character.
+	 * @param end The position after the last character.
+	 * @return The name's id.
+	 */
+	public int intern(Source src, int begin, int end) {
+		int h=0;
+		for (int i=begin; i<end; i++)
+			h=31*h+src.charAt(i); // as String.hashCode()
+		int len=end-begin;
+		int mask=table.length-1;
+		for (int i=spread(h)&mask; ; i=(i+1)&mask) {
+			int id=table[i]-1;
+			if (id<0)
+				return add(src.substring(begin,end),h,i);
+			if (hashes[id]==h && names[id].length()==len && src.startsWith(names[id],begin))
+				return id;
+		}
+	}
+
+	/**
+	 * Interns a name.
+	 * @param name The name.
+	 * @return The name's id.
+	 */
+	public int intern(String name) {
+		int h=name.hashCode();
+		int mask=table.length-1;
+		for (int i=spread(h)&mask; ; i=(i+1)&mask) {
+			int id=table[i]-1;
+			if (id<0)
+				return add(name,h,i);
+			if (hashes[id]==h && names[id].equals(name))
+				return id;
+		}
+	}
+
+	private static int spread(int h) {
+		h*=0x9e3779b9; // similar names have nearby hashes
+		return h^(h>>>16);
+	}
+
+	private int add(String name, int h, int slot) {
+		if (size==names.length) {
+			names=Arrays.copyOf(names,2*size);
+			hashes=Arrays.copyOf(hashes,2*size);
+		}
+		names[size]=name;
+		hashes[size]=h;
+		table[slot]=++size;
+		if (2*size>table.length)
+			rehash();
+		return size-1;
+	}
+
+	private void rehash() {
+		table=new int[2*table.length];
+		int mask=table.length-1;
+		for (int id=0; id<size; id++) {
+			int i=spread(hashes[id])&mask;
+			while (table[i]!=0)
+				i=(i+1)&mask;
+			table[i]=id+1;
+		}
+	}
+
+	/**
+	 * Returns the name with an id.
+	 * @param id The id.
+	 * @return The name.
+	 */
+	public String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Returns the number of names, which is one more than the largest id.
+	 * @return The number of names.
+	 */
+	public int size() {
+		return size;
+	}
+
+}
@@ -5,6 +5,50 @@
  */
 public class Token {
 
+	// token kinds, as ints, for the Scanner's TokenBuffer
+	public static final int EOF=0;
+	public static final int ID=1;
+	public static final int NUM=2;
+	public static final int ASSIGN=3;
+	public static final int PLUS=4;
+	public static final int MINUS=5;
+	public static final int TIMES=6;
+	public static final int DIVIDE=7;
+	public static final int LPAREN=8;
+	public static final int RPAREN=9;
+	public static final int SEMI=10;
+	public static final int LT=11;
+	public static final int LE=12;
+	public static final int GT=13;
+	public static final int GE=14;
+	public static final int NE=15;
+	public static final int EQ=16;
+	public static final int RD=17;
+	public static final int WR=18;
+	public static final int IF=19;
+	public static final int THEN=20;
+	public static final int ELSE=21;
+	public static final int WHILE=22;
+	public static final int DO=23;
+	public static final int BEGIN=24;
+	public static final int END=25;
+
+	private static final String[] names={
+		"EOF", "id", "num",
+		"=", "+", "-", "*", "/", "(", ")", ";",
+		"<", "<=", ">", ">=", "<>", "==",
+		"rd", "wr", "if", "then", "else", "while", "do", "begin", "end",
+	};
+
+	/**
+	 * Returns the type of a kind of token, e.g., "id" or "+".
+	 * @param kind The kind.
+	 * @return The type, which is also the lexeme of an operator or keyword.
+	 */
+	public static String name(int kind) {
+		return names[kind];
+	}
+
 	private String token;
 	private String lexeme;
 
@@ -0,0 +1,86 @@
+import java.util.Arrays;
+
+/**
+ * The tokens of a program, as parallel int arrays rather than objects:
+ * for each token, its kind (see Token), the positions where its lexeme
+ * starts and ends, and, for an identifier, the id of its name in the
+ * Scanner's symbol table (otherwise -1). A number's text is read back
+ * from the source, by position.
+ */
+public class TokenBuffer {
+
+	private int[] kinds=new int[256];
+	private int[] starts=new int[256];
+	private int[] ends=new int[256];
+	private int[] syms=new int[256];
+	private int size;
+
+	/**
+	 * Appends a token.
+	 * @param kind The kind.
+	 * @param start The position of its first character.
+	 * @param end The position after its last character.
+	 * @param sym The id of its lexeme, or -1.
+	 * @return The token's index.
+	 */
+	public int add(int kind, int start, int end, int sym) {
+		if (size==kinds.length) {
+			kinds=Arrays.copyOf(kinds,2*size);
+			starts=Arrays.copyOf(starts,2*size);
+			ends=Arrays.copyOf(ends,2*size);
+			syms=Arrays.copyOf(syms,2*size);
+		}
+		kinds[size]=kind;
+		starts[size]=start;
+		ends[size]=end;
+		syms[size]=sym;
+		return size++;
+	}
+
+	/**
+	 * Drops the tokens before an index, which becomes index 0.
+	 * @param from The index of the first token to keep.
+	 */
+	public void compact(int from) {
+		size-=from;
+		System.arraycopy(kinds,from,kinds,0,size);
+		System.arraycopy(starts,from,starts,0,size);
+		System.arraycopy(ends,from,ends,0,size);
+		System.arraycopy(syms,from,syms,0,size);
+	}
+
+	/**
+	 * Returns the number of tokens.
+	 * @return The number of tokens.
+	 */
+	public int size() { return size; }
+
+	/**
+	 * Returns a token's kind.
+	 * @param i The token's index.
+	 * @return The kind, e.g., Token.ID.
+	 */
+	public int kind(int i) { return kinds[i]; }
+
+	/**
+	 * Returns where a token starts.
+	 * @param i The token's index.
+	 * @return The position of its first character.
+	 */
+	public int start(int i) { return starts[i]; }
+
+	/**
+	 * Returns where a token ends.
+	 * @param i The token's index.
+	 * @return The position after its last character.
+	 */
+	public int end(int i) { return ends[i]; }
+
+	/**
+	 * Returns the id of a token's lexeme.
+	 * @param i The token's index.
+	 * @return The id, or -1 if it is not an identifier.
+	 */
+	public int sym(int i) { return syms[i]; }
+
+}
@@ -0,0 +1,390 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The numeric type inference pass: an interval analysis, over the AST,
+ * which proves which expressions always hold integers that a double
+ * and a long both represent exactly, and marks them integral (see
+ * NodeExpr.setIntegral()). eval() computes those with long arithmetic,
+ * and code() emits them as C integer arithmetic. Each variable's values,
+ * at each point, are bounded by an interval of integers, or unknown:
+ * <ul>
+ * <li>A literal is its value, if it is an integer; 'rd' is unknown.</li>
+ * <li>'+', '-', and '*' combine their operands' bounds; '/' is unknown,
+ * so division stays in doubles. An operation that may give -0
+ * (e.g., -x, where x may be 0), or may leave 2^53, is unknown too,
+ * as a long cannot represent it, or would not round as a double does.</li>
+ * <li>A condition comparing a variable to a bounded expression bounds the
+ * variable, in the branch taken, e.g., in a loop's body, and after it.</li>
+ * <li>Where paths join, bounds are merged; at a loop's header, bounds
+ * that keep growing are widened, then narrowed by the loop's condition,
+ * so a counter up to a constant is bounded by it.</li>
+ * </ul>
+ * Variables are unknown at a program's start, as earlier programs are
+ * not analyzed with it, unless they are undefined, and have no value.
+ * The Environment records, for the C declarations, which variables
+ * are only ever assigned, and read, as integral.
+ */
+public class Types {
+
+	private static final double exact=0x1p53; // integers up to this are exact doubles
+	private static final double big=0x1p62; // bounds are widened to this
+
+	/**
+	 * A bounded value: an integer in [lo,hi], never -0 and never NaN.
+	 * Unknown values are null, and an undefined variable's are empty.
+	 */
+	private static class Range {
+		private final double lo, hi;
+		private Range(double lo, double hi) {
+			this.lo=lo;
+			this.hi=hi;
+		}
+	}
+
+	private static final Range undefined=new Range(Double.POSITIVE_INFINITY,Double.NEGATIVE_INFINITY);
+
+	private Environment env;
+
+	private Types(Environment env) {
+		this.env=env;
+	}
+
+	/**
+	 * Infers a program's types, and marks its integral expressions.
+	 * @param n The root of the program's AST.
+	 * @param env The environment in which variables' C types are recorded.
+	 */
+	public static void infer(Node n, Environment env) {
+		Map<String,Range> s=new HashMap<>();
+		for (String v: Vars.of(n))
+			if (!env.has(v))
+				s.put(v,undefined); // no values: reading it fails
+		new Types(env).stmt(n,s,true);
+	}
+
+	/**
+	 * Analyzes a statement.
+	 * @param s The bounds before it, which it may update, or null if
+	 * it is unreachable.
+	 * @param mark true to mark its expressions, once bounds are final.
+	 * @return The bounds after it, or null if that is unreachable.
+	 */
+	private Map<String,Range> stmt(Node n, Map<String,Range> s, boolean mark) {
+		if (s==null) {
+			if (mark) // never run, but it is still compiled
+				stmt(n,new HashMap<>(),true);
+			return null;
+		}
+		if (n instanceof NodeStmt)
+			return stmt(((NodeStmt)n).getStmt(),s,mark);
+		if (n instanceof NodeBlock) {
+			for (NodeStmt stmt: ((NodeBlock)n).getStmts())
+				s=stmt(stmt,s,mark);
+			return s;
+		}
+		if (n instanceof NodeAssn) {
+			NodeAssn a=(NodeAssn)n;
+			Range r=expr(a.getExpr(),s,mark);
+			if (mark)
+				env.type(a.getId(),a.getExpr().isIntegral());
+			return set(s,a.getId(),r);
+		}
+		if (n instanceof NodeRd) {
+			String id=((NodeRd)n).getId();
+			if (mark)
+				env.type(id,false);
+			return set(s,id,null);
+		}
+		if (n instanceof NodeWr) {
+			expr(((NodeWr)n).getExpr(),s,mark);
+			return s;
+		}
+		if (n instanceof NodeIf) {
+			NodeIf i=(NodeIf)n;
+			NodeBoolexpr c=i.getBoolexpr();
+			if (mark)
+				cond(c,s);
+			Map<String,Range> then=stmt(i.getThenStmt(),refine(c,s,true),mark);
+			Map<String,Range> els=refine(c,s,false);
+			if (i.getElseStmt()!=null)
+				els=stmt(i.getElseStmt(),els,mark);
+			return join(then,els);
+		}
+		if (n instanceof NodeWhile)
+			return loop((NodeWhile)n,s,mark);
+		return s;
+	}
+
+	private static Map<String,Range> set(Map<String,Range> s, String id, Range r) {
+		if (r==null)
+			s.remove(id);
+		else
+			s.put(id,r);
+		return s;
+	}
+
+	/**
+	 * Analyzes a loop: finds bounds at its header that hold on every
+	 * iteration, by iterating its body until they stop growing.
+	 */
+	private Map<String,Range> loop(NodeWhile w, Map<String,Range> in, boolean mark) {
+		NodeBoolexpr c=w.getBoolexpr();
+		Map<String,Range> head=in;
+		for (int i=0; ; i++) {
+			Map<String,Range> next=join(in,stmt(w.getStmt(),refine(c,head,true),false));
+			if (leq(next,head))
+				break;
+			head=i<2 ? join(head,next) : widen(head,next);
+		}
+		for (int i=0; i<2; i++) { // narrowing, kept while the narrower bounds still hold
+			Map<String,Range> next=join(in,stmt(w.getStmt(),refine(c,head,true),false));
+			if (!leq(join(in,stmt(w.getStmt(),refine(c,next,true),false)),next))
+				break;
+			head=next;
+		}
+		if (mark) {
+			cond(c,head);
+			stmt(w.getStmt(),refine(c,head,true),true);
+		}
+		return refine(c,head,false);
+	}
+
+	// bounds
+
+	/**
+	 * Merges the bounds on two paths.
+	 * @return The bounds holding on either, or null if neither is reachable.
+	 */
+	private static Map<String,Range> join(Map<String,Range> a, Map<String,Range> b) {
+		if (a==null)
+			return b==null ? null : new HashMap<>(b);
+		if (b==null)
+			return new HashMap<>(a);
+		Map<String,Range> s=new HashMap<>();
+		for (Map.Entry<String,Range> e: a.entrySet()) {
+			Range r=b.get(e.getKey());
+			if (r!=null)
+				s.put(e.getKey(),new Range(Math.min(r.lo,e.getValue().lo),Math.max(r.hi,e.getValue().hi)));
+		}
+		return s;
+	}
+
+	/**
+	 * Tells whether bounds are within others.
+	 * @return true if a's values are all b's.
+	 */
+	private static boolean leq(Map<String,Range> a, Map<String,Range> b) {
+		if (a==null)
+			return true;
+		if (b==null)
+			return false;
+		for (Map.Entry<String,Range> e: b.entrySet()) {
+			Range r=a.get(e.getKey());
+			if (r==null || r.lo<e.getValue().lo || r.hi>e.getValue().hi)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Widens bounds that grew from old to next as far as they can.
+	 */
+	private static Map<String,Range> widen(Map<String,Range> old, Map<String,Range> next) {
+		Map<String,Range> s=new HashMap<>();
+		for (Map.Entry<String,Range> e: next.entrySet()) {
+			Range o=old.get(e.getKey());
+			Range r=e.getValue();
+			if (o!=null && o.lo>o.hi) // from undefined
+				s.put(e.getKey(),r);
+			else if (o!=null)
+				s.put(e.getKey(),new Range(r.lo<o.lo ? -big : o.lo,r.hi>o.hi ? big : o.hi));
+		}
+		return s;
+	}
+
+	/**
+	 * Bounds the variables a condition compares, where it has a value.
+	 * @param truth The condition's value.
+	 * @return The bounds there, or null if the condition cannot have that value.
+	 */
+	private Map<String,Range> refine(NodeBoolexpr c, Map<String,Range> s, boolean truth) {
+		if (s==null)
+			return null;
+		String op=c.getRelop().getOp();
+		if (!truth)
+			op=negate(op);
+		Range r1=expr(c.getExpr1(),s,false);
+		Range r2=expr(c.getExpr2(),s,false);
+		Map<String,Range> t=new HashMap<>(s);
+		return bound(t,var(c.getExpr1()),op,r2) && bound(t,var(c.getExpr2()),mirror(op),r1) ? t : null;
+	}
+
+	/**
+	 * Bounds a variable by "var op r".
+	 * @return false if it cannot hold.
+	 */
+	private static boolean bound(Map<String,Range> s, String var, String op, Range r) {
+		Range v=var==null ? null : s.get(var);
+		if (v==null || !exact(r)) // both integers, so x<y is x<=y-1
+			return true;
+		double lo=v.lo;
+		double hi=v.hi;
+		switch (op) {
+		case "<":  hi=Math.min(hi,r.hi-1); break;
+		case "<=": hi=Math.min(hi,r.hi); break;
+		case ">":  lo=Math.max(lo,r.lo+1); break;
+		case ">=": lo=Math.max(lo,r.lo); break;
+		case "==": lo=Math.max(lo,r.lo); hi=Math.min(hi,r.hi); break;
+		default: return true;
+		}
+		if (lo>hi)
+			return false;
+		s.put(var,new Range(lo,hi));
+		return true;
+	}
+
+	private static String negate(String op) {
+		switch (op) {
+		case "<":  return ">=";
+		case "<=": return ">";
+		case ">":  return "<=";
+		case ">=": return "<";
+		case "==": return "<>";
+		default:   return "==";
+		}
+	}
+
+	private static String mirror(String op) {
+		switch (op) {
+		case "<":  return ">";
+		case "<=": return ">=";
+		case ">":  return "<";
+		case ">=": return "<=";
+		default:   return op;
+		}
+	}
+
+	/**
+	 * Returns an expression's variable, if it is only that.
+	 * @return The variable, or null.
+	 */
+	private static String var(NodeExpr e) {
+		if (e.getExpr()!=null || e.getTerm().getTerm()!=null)
+			return null;
+		NodeFact f=e.getTerm().getFact();
+		return f instanceof NodeFactId ? ((NodeFactId)f).getId() : null;
+	}
+
+	private static Range range(double lo, double hi) {
+		return lo>=-big && hi<=big ? new Range(lo,hi) : null;
+	}
+
+	private static boolean exact(Range r) {
+		return r!=null && r.lo>=-exact && r.hi<=exact;
+	}
+
+	// expressions
+
+	private void cond(NodeBoolexpr c, Map<String,Range> s) {
+		expr(c.getExpr1(),s,true);
+		expr(c.getExpr2(),s,true);
+	}
+
+	/**
+	 * Bounds an expression.
+	 * @param mark true to mark it, and its subexpressions.
+	 * @return Its bounds, or null if it is unknown.
+	 */
+	private Range expr(NodeExpr e, Map<String,Range> s, boolean mark) {
+		List<NodeExpr> chain=new ArrayList<>(); // leftmost term first
+		for (NodeExpr n=e; n!=null; n=n.getExpr())
+			chain.add(n);
+		Range r=null;
+		boolean integral=true;
+		for (int i=chain.size()-1; i>=0; i--) {
+			NodeExpr n=chain.get(i);
+			Range t=term(n.getTerm(),s,mark);
+			if (n.getAddop()==null)
+				r=t;
+			else if (r!=null && t!=null)
+				r=n.getAddop().getOp().equals("+")
+					? range(r.lo+t.lo,r.hi+t.hi)
+					: range(r.lo-t.hi,r.hi-t.lo);
+			else
+				r=null;
+			if (mark) {
+				integral=integral && n.getTerm().isIntegral() && exact(r);
+				n.setIntegral(integral);
+			}
+		}
+		return r;
+	}
+
+	private Range term(NodeTerm t, Map<String,Range> s, boolean mark) {
+		List<NodeTerm> chain=new ArrayList<>(); // leftmost fact first
+		for (NodeTerm n=t; n!=null; n=n.getTerm())
+			chain.add(n);
+		Range r=null;
+		boolean integral=true;
+		for (int i=chain.size()-1; i>=0; i--) {
+			NodeTerm n=chain.get(i);
+			Range f=fact(n.getFact(),s,mark);
+			if (n.getMulop()==null)
+				r=f;
+			else if (r!=null && f!=null && n.getMulop().getOp().equals("*"))
+				r=mul(r,f);
+			else
+				r=null;
+			if (mark) {
+				integral=integral && n.getFact().isIntegral() && exact(r);
+				n.setIntegral(integral);
+			}
+		}
+		return r;
+	}
+
+	private static Range mul(Range a, Range b) {
+		if (a.lo<=0 && a.hi>=0 && b.lo<0 || b.lo<=0 && b.hi>=0 && a.lo<0)
+			return null; // 0 times a negative is -0
+		double p1=a.lo*b.lo;
+		double p2=a.lo*b.hi;
+		double p3=a.hi*b.lo;
+		double p4=a.hi*b.hi;
+		return range(Math.min(Math.min(p1,p2),Math.min(p3,p4)),
+			Math.max(Math.max(p1,p2),Math.max(p3,p4)));
+	}
+
+	private Range fact(NodeFact f, Map<String,Range> s, boolean mark) {
+		Range r=null;
+		boolean integral=false;
+		if (f instanceof NodeFactNum) {
+			double d=((NodeFactNum)f).getVal();
+			if (d==Math.rint(d))
+				r=range(d,d);
+			integral=exact(r);
+		} else if (f instanceof NodeFactId) {
+			String id=((NodeFactId)f).getId();
+			r=s.get(id);
+			integral=exact(r);
+			if (mark && !integral)
+				env.type(id,false);
+		} else if (f instanceof NodeFactUnary) {
+			NodeFact g=((NodeFactUnary)f).getFact();
+			Range o=fact(g,s,mark);
+			if (o!=null && (o.lo>0 || o.hi<0)) // -0 is not a long
+				r=range(-o.hi,-o.lo);
+			integral=mark && g.isIntegral() && exact(r);
+		} else if (f instanceof NodeFactExpr) {
+			NodeExpr e=((NodeFactExpr)f).getExpr();
+			r=expr(e,s,mark);
+			integral=mark && e.isIntegral();
+		}
+		if (mark)
+			f.setIntegral(integral);
+		return r;
+	}
+
+}
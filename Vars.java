@@ -0,0 +1,75 @@
+import java.util.*;
+
+/**
+ * Finds the variables a program mentions, whether it assigns,
+ * reads (rd), or uses them in expressions.
+ */
+public class Vars {
+
+	/**
+	 * Returns the variables mentioned in a subtree, in order of first mention.
+	 * @param n The root of the subtree.
+	 * @return The variable names.
+	 */
+	public static Set<String> of(Node n) {
+		Set<String> vars=new LinkedHashSet<>();
+		collect(n,vars);
+		return vars;
+	}
+
+	/**
+	 * Adds the variables mentioned in a subtree to a set.
+	 * @param n The root of the subtree, or null.
+	 * @param vars The set to add to.
+	 */
+	public static void collect(Node n, Set<String> vars) {
+		if (n instanceof NodeAssn)
+			vars.add(((NodeAssn)n).getId());
+		else if (n instanceof NodeRd)
+			vars.add(((NodeRd)n).getId());
+		else if (n instanceof NodeFactId)
+			vars.add(((NodeFactId)n).getId());
+		for (Node c: children(n))
+			collect(c,vars);
+	}
+
+	/**
+	 * Returns a node's children, in order; null ones are left out.
+	 * @param n The node, or null.
+	 * @return The children.
+	 */
+	static List<Node> children(Node n) {
+		List<Node> c=new ArrayList<>();
+		if (n instanceof NodeBlock)
+			c.addAll(((NodeBlock)n).getStmts());
+		else if (n instanceof NodeStmt)
+			c.add(((NodeStmt)n).getStmt());
+		else if (n instanceof NodeAssn)
+			c.add(((NodeAssn)n).getExpr());
+		else if (n instanceof NodeWr)
+			c.add(((NodeWr)n).getExpr());
+		else if (n instanceof NodeIf) {
+			c.add(((NodeIf)n).getBoolexpr());
+			c.add(((NodeIf)n).getThenStmt());
+			c.add(((NodeIf)n).getElseStmt());
+		} else if (n instanceof NodeWhile) {
+			c.add(((NodeWhile)n).getBoolexpr());
+			c.add(((NodeWhile)n).getStmt());
+		} else if (n instanceof NodeBoolexpr) {
+			c.add(((NodeBoolexpr)n).getExpr1());
+			c.add(((NodeBoolexpr)n).getExpr2());
+		} else if (n instanceof NodeExpr) {
+			c.add(((NodeExpr)n).getExpr());
+			c.add(((NodeExpr)n).getTerm());
+		} else if (n instanceof NodeTerm) {
+			c.add(((NodeTerm)n).getTerm());
+			c.add(((NodeTerm)n).getFact());
+		} else if (n instanceof NodeFactExpr)
+			c.add(((NodeFactExpr)n).getExpr());
+		else if (n instanceof NodeFactUnary)
+			c.add(((NodeFactUnary)n).getFact());
+		c.removeIf(Objects::isNull);
+		return c;
+	}
+
+}
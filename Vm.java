@@ -0,0 +1,429 @@
+import java.util.*;
+
+/**
+ * A compact register-based virtual machine, an alternative to eval().
+ * A program is lowered once into a flat int[] instruction stream.
+ * Every operand names a register in a double[] register file, laid out as
+ * variables, then constants (copied from the constant pool on entry),
+ * then temporaries. A single loop then dispatches on the opcodes.
+ * Variables are loaded from the environment on entry and stored back on exit,
+ * even when the program fails part way through.
+ */
+public class Vm {
+
+	// opcodes, followed by their operands
+	public static final int HALT=0;	//
+	public static final int MOV=1;	// dst src
+	public static final int ADD=2;	// dst a b
+	public static final int SUB=3;	// dst a b
+	public static final int MUL=4;	// dst a b
+	public static final int DIV=5;	// dst a b
+	public static final int NEG=6;	// dst a
+	public static final int RD=7;	// var
+	public static final int WR=8;	// a
+	public static final int DEF=9;	// var
+	public static final int CHK=10;	// var pos
+	public static final int JMP=11;	// target
+	public static final int JNLT=12;	// a b target, jump unless a<b
+	public static final int JNLE=13;	// a b target
+	public static final int JNGT=14;	// a b target
+	public static final int JNGE=15;	// a b target
+	public static final int JNNE=16;	// a b target, jump unless a<>b
+	public static final int JNEQ=17;	// a b target, jump unless a==b
+
+	private static final String[] names={
+		"halt","mov","add","sub","mul","div","neg","rd","wr","def","chk",
+		"jmp","jnlt","jnle","jngt","jnge","jnne","jneq",
+	};
+
+	private static final int[] sizes={
+		1,3,4,4,4,4,3,2,2,2,3,
+		2,4,4,4,4,4,4,
+	};
+
+	private static final double epsilon=1e-9; // as in NodeRelop
+
+	private int[] code;
+	private double[] pool;
+	private String[] vars;
+	private int regs;
+
+	/**
+	 * Lowers a program into VM code.
+	 * @param block The program.
+	 * @return The lowered program.
+	 * @throws EvalException If the program contains a bogus operator.
+	 */
+	public static Vm compile(NodeBlock block) throws EvalException {
+		return new Lowering().lower(block);
+	}
+
+	/**
+	 * Runs the lowered program.
+	 * @param env The environment to run in.
+	 * @throws EvalException If the program fails, as eval() would.
+	 */
+	public void run(Environment env) throws EvalException {
+		double[] r=new double[regs];
+		boolean[] def=new boolean[vars.length];
+		for (int v=0; v<vars.length; v++)
+			if (env.has(vars[v])) {
+				r[v]=env.get(0,vars[v]);
+				def[v]=true;
+			}
+		System.arraycopy(pool,0,r,vars.length,pool.length);
+		try {
+			exec(r,def,env);
+		} finally {
+			for (int v=0; v<vars.length; v++)
+				if (def[v])
+					env.put(vars[v],r[v]);
+		}
+	}
+
+	private void exec(double[] r, boolean[] def, Environment env) throws EvalException {
+		int[] c=code;
+		int pc=0;
+		while (true)
+			switch (c[pc]) {
+			case HALT:
+				return;
+			case MOV:
+				r[c[pc+1]]=r[c[pc+2]];
+				pc+=3;
+				break;
+			case ADD:
+				r[c[pc+1]]=r[c[pc+2]]+r[c[pc+3]];
+				pc+=4;
+				break;
+			case SUB:
+				r[c[pc+1]]=r[c[pc+2]]-r[c[pc+3]];
+				pc+=4;
+				break;
+			case MUL:
+				r[c[pc+1]]=r[c[pc+2]]*r[c[pc+3]];
+				pc+=4;
+				break;
+			case DIV:
+				r[c[pc+1]]=r[c[pc+2]]/r[c[pc+3]];
+				pc+=4;
+				break;
+			case NEG:
+				r[c[pc+1]]=-r[c[pc+2]];
+				pc+=3;
+				break;
+			case RD:
+				r[c[pc+1]]=env.read();
+				def[c[pc+1]]=true;
+				pc+=2;
+				break;
+			case WR:
+				env.write(r[c[pc+1]]);
+				pc+=2;
+				break;
+			case DEF:
+				def[c[pc+1]]=true;
+				pc+=2;
+				break;
+			case CHK:
+				if (!def[c[pc+1]])
+					throw new EvalException(c[pc+2],"undefined variable: "+vars[c[pc+1]]);
+				pc+=3;
+				break;
+			case JMP:
+				pc=c[pc+1];
+				break;
+			case JNLT:
+				pc=r[c[pc+1]]<r[c[pc+2]] ? pc+4 : c[pc+3];
+				break;
+			case JNLE:
+				pc=r[c[pc+1]]<=r[c[pc+2]] ? pc+4 : c[pc+3];
+				break;
+			case JNGT:
+				pc=r[c[pc+1]]>r[c[pc+2]] ? pc+4 : c[pc+3];
+				break;
+			case JNGE:
+				pc=r[c[pc+1]]>=r[c[pc+2]] ? pc+4 : c[pc+3];
+				break;
+			case JNNE:
+				pc=Math.abs(r[c[pc+1]]-r[c[pc+2]])>epsilon ? pc+4 : c[pc+3];
+				break;
+			case JNEQ:
+				pc=Math.abs(r[c[pc+1]]-r[c[pc+2]])<epsilon ? pc+4 : c[pc+3];
+				break;
+			default:
+				throw new EvalException(pc,"bogus opcode: "+c[pc]);
+			}
+	}
+
+	private String reg(int r) {
+		if (r<vars.length)
+			return vars[r];
+		if (r<vars.length+pool.length)
+			return "#"+pool[r-vars.length];
+		return "t"+(r-vars.length-pool.length);
+	}
+
+	/**
+	 * Disassembles the lowered program, one instruction per line.
+	 * Registers print as variable names, #constants, or tN temporaries.
+	 * @return The listing.
+	 */
+	public String disassemble() {
+		StringBuilder s=new StringBuilder();
+		for (int pc=0; pc<code.length; pc+=sizes[code[pc]]) {
+			int op=code[pc];
+			s.append(String.format("%5d  %-5s",pc,names[op]));
+			switch (op) {
+			case RD: case DEF:
+				s.append(" ").append(vars[code[pc+1]]);
+				break;
+			case CHK:
+				s.append(" ").append(vars[code[pc+1]]).append(" @").append(code[pc+2]);
+				break;
+			case JMP:
+				s.append(" ").append(code[pc+1]);
+				break;
+			case JNLT: case JNLE: case JNGT: case JNGE: case JNNE: case JNEQ:
+				s.append(" ").append(reg(code[pc+1])).append(", ").append(reg(code[pc+2]))
+					.append(", ").append(code[pc+3]);
+				break;
+			default:
+				for (int i=1; i<sizes[op]; i++)
+					s.append(i==1 ? " " : ", ").append(reg(code[pc+i]));
+			}
+			s.append("\n");
+		}
+		return s.toString();
+	}
+
+	/**
+	 * Lowers the AST of one program into VM code.
+	 */
+	private static class Lowering {
+
+		private int[] code=new int[64];
+		private int len=0;
+		private List<Double> pool=new ArrayList<>();
+		private Map<Long,Integer> poolIndex=new HashMap<>();
+		private Map<String,Integer> vars=new LinkedHashMap<>();
+		private int temps=0;
+		private int maxTemps=0;
+
+		// Operands are numbered provisionally while lowering:
+		// variables as themselves, constants and temporaries as
+		// negative numbers, fixed up once the register layout is known.
+
+		private void emit(int... words) {
+			while (len+words.length>code.length)
+				code=Arrays.copyOf(code,code.length*2);
+			for (int w: words)
+				code[len++]=w;
+		}
+
+		private int var(String id) {
+			Integer v=vars.get(id);
+			if (v==null) {
+				v=vars.size();
+				vars.put(id,v);
+			}
+			return v;
+		}
+
+		private int constant(double d) {
+			long bits=Double.doubleToRawLongBits(d);
+			Integer k=poolIndex.get(bits);
+			if (k==null) {
+				k=pool.size();
+				pool.add(d);
+				poolIndex.put(bits,k);
+			}
+			return -1-2*k; // odd negatives
+		}
+
+		private int temp() {
+			int t=temps++;
+			maxTemps=Math.max(maxTemps,temps);
+			return -2-2*t; // even negatives
+		}
+
+		Vm lower(NodeBlock block) throws EvalException {
+			block(block,new HashSet<>());
+			emit(HALT);
+			Vm vm=new Vm();
+			vm.vars=vars.keySet().toArray(new String[0]);
+			vm.pool=new double[pool.size()];
+			for (int k=0; k<pool.size(); k++)
+				vm.pool[k]=pool.get(k);
+			vm.regs=vm.vars.length+vm.pool.length+maxTemps;
+			// fix up provisional register numbers
+			for (int pc=0; pc<len; pc+=sizes[code[pc]]) {
+				int op=code[pc];
+				if (op==RD || op==DEF || op==CHK || op==JMP)
+					continue;
+				int n=op>=JNLT ? 2 : sizes[op]-1;
+				for (int i=1; i<=n; i++) {
+					int r=code[pc+i];
+					if (r<0)
+						code[pc+i]=(r&1)!=0
+							? vm.vars.length+(-1-r)/2
+							: vm.vars.length+vm.pool.length+(-2-r)/2;
+				}
+			}
+			vm.code=Arrays.copyOf(code,len);
+			return vm;
+		}
+
+		// statements
+		// "defined" holds the variables surely assigned at this point,
+		// whose reads need no CHK.
+
+		private void block(NodeBlock block, Set<String> defined) throws EvalException {
+			for (NodeStmt s: block.getStmts())
+				stmt(s,defined);
+		}
+
+		private void assigned(String id, Set<String> defined) {
+			if (defined.add(id))
+				emit(DEF,var(id));
+		}
+
+		private void stmt(NodeStmt stmt, Set<String> defined) throws EvalException {
+			Node n=stmt.getStmt();
+			temps=0;
+			if (n instanceof NodeAssn) {
+				NodeAssn assn=(NodeAssn)n;
+				expr(assn.getExpr(),var(assn.getId()),defined);
+				assigned(assn.getId(),defined);
+			} else if (n instanceof NodeRd) {
+				emit(RD,var(((NodeRd)n).getId()));
+				defined.add(((NodeRd)n).getId());
+			} else if (n instanceof NodeWr) {
+				emit(WR,expr(((NodeWr)n).getExpr(),-1,defined));
+			} else if (n instanceof NodeIf) {
+				NodeIf ifStmt=(NodeIf)n;
+				int otherwise=cond(ifStmt.getBoolexpr(),defined);
+				Set<String> thenDefined=new HashSet<>(defined);
+				stmt(ifStmt.getThenStmt(),thenDefined);
+				if (ifStmt.getElseStmt()==null)
+					code[otherwise]=len;
+				else {
+					emit(JMP,0);
+					int done=len-1;
+					code[otherwise]=len;
+					Set<String> elseDefined=new HashSet<>(defined);
+					stmt(ifStmt.getElseStmt(),elseDefined);
+					code[done]=len;
+					thenDefined.retainAll(elseDefined);
+					defined.addAll(thenDefined);
+				}
+			} else if (n instanceof NodeWhile) {
+				NodeWhile whileStmt=(NodeWhile)n;
+				int top=len;
+				int done=cond(whileStmt.getBoolexpr(),defined);
+				stmt(whileStmt.getStmt(),new HashSet<>(defined));
+				emit(JMP,top);
+				code[done]=len;
+			} else if (n instanceof NodeBlock)
+				block((NodeBlock)n,defined);
+			else
+				throw new EvalException(stmt.pos,"Empty NodeStmt");
+		}
+
+		// expressions
+		// Each returns the register holding its value. When dst is
+		// not -1, the value is computed into dst instead.
+
+		private int cond(NodeBoolexpr b, Set<String> defined) throws EvalException {
+			temps=0;
+			int r1=expr(b.getExpr1(),-1,defined);
+			int r2=expr(b.getExpr2(),-1,defined);
+			NodeRelop relop=b.getRelop();
+			int op;
+			switch (relop.getOp()) {
+			case "<": op=JNLT; break;
+			case "<=": op=JNLE; break;
+			case ">": op=JNGT; break;
+			case ">=": op=JNGE; break;
+			case "<>": op=JNNE; break;
+			case "==": op=JNEQ; break;
+			default: throw new EvalException(relop.pos,"bogus relop: "+relop.getOp());
+			}
+			emit(op,r1,r2,0);
+			return len-1; // to be patched with the false target
+		}
+
+		private int into(int dst, int src) {
+			if (dst==-1 || dst==src)
+				return src;
+			emit(MOV,dst,src);
+			return dst;
+		}
+
+		private int target(int dst, int mark) {
+			temps=mark;
+			return dst==-1 ? temp() : dst;
+		}
+
+		private int expr(NodeExpr e, int dst, Set<String> defined) throws EvalException {
+			if (e.getExpr()==null)
+				return term(e.getTerm(),dst,defined);
+			int mark=temps;
+			int a=expr(e.getExpr(),-1,defined);
+			int b=term(e.getTerm(),-1,defined);
+			NodeAddop addop=e.getAddop();
+			int op;
+			if (addop.getOp().equals("+"))
+				op=ADD;
+			else if (addop.getOp().equals("-"))
+				op=SUB;
+			else
+				throw new EvalException(addop.pos,"bogus addop: "+addop.getOp());
+			int r=target(dst,mark);
+			emit(op,r,a,b);
+			return r;
+		}
+
+		private int term(NodeTerm t, int dst, Set<String> defined) throws EvalException {
+			if (t.getTerm()==null)
+				return fact(t.getFact(),dst,defined);
+			int mark=temps;
+			int a=term(t.getTerm(),-1,defined);
+			int b=fact(t.getFact(),-1,defined);
+			NodeMulop mulop=t.getMulop();
+			int op;
+			if (mulop.getOp().equals("*"))
+				op=MUL;
+			else if (mulop.getOp().equals("/"))
+				op=DIV;
+			else
+				throw new EvalException(mulop.pos,"bogus mulop: "+mulop.getOp());
+			int r=target(dst,mark);
+			emit(op,r,a,b);
+			return r;
+		}
+
+		private int fact(NodeFact f, int dst, Set<String> defined) throws EvalException {
+			if (f instanceof NodeFactNum)
+				return into(dst,constant(((NodeFactNum)f).getVal()));
+			if (f instanceof NodeFactId) {
+				String id=((NodeFactId)f).getId();
+				if (!defined.contains(id))
+					emit(CHK,var(id),f.pos);
+				return into(dst,var(id));
+			}
+			if (f instanceof NodeFactExpr)
+				return expr(((NodeFactExpr)f).getExpr(),dst,defined);
+			if (f instanceof NodeFactUnary) {
+				int mark=temps;
+				int a=fact(((NodeFactUnary)f).getFact(),-1,defined);
+				int r=target(dst,mark);
+				emit(NEG,r,a);
+				return r;
+			}
+			throw new EvalException(f.pos,"cannot eval() node!");
+		}
+
+	}
+
+}
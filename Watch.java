@@ -0,0 +1,261 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches program files, and re-runs them whenever one changes,
+ * re-parsing only what the edit touched. Each program's top-level
+ * statements are kept, with where they start and their C. After an
+ * edit, the statements before it are kept as they are; parsing resumes
+ * at the statement the edit starts in, and stops as soon as it reaches
+ * the start of an old statement after the edit, from which the old
+ * statements are reused (with their positions shifted by the edit).
+ * The programs are then run again, from the start, against a new
+ * Environment, as Main runs them, and the C is rewritten from the kept
+ * pieces. Stdin is read once, to EOF, and replayed on every run.
+ * After each run, a line on stderr reports how much was re-parsed and
+ * the latency from the edit (the file's modification time) to the result.
+ */
+public class Watch {
+
+	/**
+	 * A watched program, as of its last parse.
+	 */
+	private static class Program {
+		private Path path;
+		private FileTime modified;
+		private String text;
+		private List<NodeStmt> stmts=new ArrayList<>();
+		private List<Integer> starts=new ArrayList<>();	// where each statement starts
+		private List<String> codes=new ArrayList<>();
+		private SyntaxException error;					// if the text does not parse
+		Program(Path path) {
+			this.path=path;
+		}
+	}
+
+	private List<Program> progs=new ArrayList<>();
+	private byte[] input;
+	private Parser parser=new Parser();
+
+	/**
+	 * Constructs a watcher for program files.
+	 * @param files The names of the files.
+	 * @param input The input replayed on every run.
+	 */
+	public Watch(String[] files, byte[] input) {
+		for (String fn: files)
+			progs.add(new Program(Paths.get(fn).toAbsolutePath()));
+		this.input=input;
+	}
+
+	/**
+	 * Re-parses the part of a program an edit touched.
+	 * @param p The program.
+	 * @param text The program's new text.
+	 * @return The number of statements parsed.
+	 */
+	private int update(Program p, String text) {
+		String old=p.text;
+		int delta=0;
+		int editEnd=0;	// where the text after the edit starts, in text
+		int first=0;	// the first statement to re-parse
+		if (old!=null && p.error==null) {
+			int max=Math.min(old.length(),text.length());
+			int pre=0;
+			while (pre<max && old.charAt(pre)==text.charAt(pre))
+				pre++;
+			int suf=0;
+			while (suf<max-pre
+					&& old.charAt(old.length()-1-suf)==text.charAt(text.length()-1-suf))
+				suf++;
+			delta=text.length()-old.length();
+			editEnd=text.length()-suf;
+			while (first+1<p.starts.size() && p.starts.get(first+1)<=pre)
+				first++;
+		} else
+			old=null;
+		List<NodeStmt> stmts=new ArrayList<>(p.stmts.subList(0,old==null ? 0 : first));
+		List<Integer> starts=new ArrayList<>(p.starts.subList(0,stmts.size()));
+		List<String> codes=new ArrayList<>(p.codes.subList(0,stmts.size()));
+		int parsed=0;
+		p.text=text;
+		p.error=null;
+		try {
+			parser.start(Source.of(text),first==0 ? 0 : p.starts.get(first));
+			while (true) {
+				int start=parser.tokenStart();
+				int j=old==null || start<editEnd || !parser.inBlock()
+					? -1
+					: Collections.binarySearch(p.starts,start-delta);
+				if (j>=0) { // back in step with the old statements
+					for (; j<p.stmts.size(); j++) {
+						shift(p.stmts.get(j),delta);
+						stmts.add(p.stmts.get(j));
+						starts.add(p.starts.get(j)+delta);
+						codes.add(p.codes.get(j));
+					}
+					break;
+				}
+				NodeStmt stmt=parser.nextStmt();
+				if (stmt==null)
+					break;
+				parsed++;
+				stmts.add(stmt);
+				starts.add(start);
+				codes.add(Code.body(stmt).toString());
+			}
+		} catch (SyntaxException e) {
+			p.error=e;
+		}
+		p.stmts=stmts;
+		p.starts=starts;
+		p.codes=codes;
+		return parsed;
+	}
+
+	/**
+	 * Moves the positions in a subtree, for text inserted or deleted before it.
+	 * Unset positions (0) are left alone, as are NodeBlock's,
+	 * which tell code() whether the block is the root.
+	 */
+	private static void shift(Node n, int delta) {
+		if (n==null || delta==0)
+			return;
+		if (!(n instanceof NodeBlock) && n.pos!=0)
+			n.pos+=delta;
+		if (n instanceof NodeBlock)
+			for (NodeStmt s: ((NodeBlock)n).getStmts())
+				shift(s,delta);
+		else if (n instanceof NodeStmt)
+			shift(((NodeStmt)n).getStmt(),delta);
+		else if (n instanceof NodeAssn)
+			shift(((NodeAssn)n).getExpr(),delta);
+		else if (n instanceof NodeWr)
+			shift(((NodeWr)n).getExpr(),delta);
+		else if (n instanceof NodeIf) {
+			shift(((NodeIf)n).getBoolexpr(),delta);
+			shift(((NodeIf)n).getThenStmt(),delta);
+			shift(((NodeIf)n).getElseStmt(),delta);
+		} else if (n instanceof NodeWhile) {
+			shift(((NodeWhile)n).getBoolexpr(),delta);
+			shift(((NodeWhile)n).getStmt(),delta);
+		} else if (n instanceof NodeBoolexpr) {
+			shift(((NodeBoolexpr)n).getExpr1(),delta);
+			shift(((NodeBoolexpr)n).getRelop(),delta);
+			shift(((NodeBoolexpr)n).getExpr2(),delta);
+		} else if (n instanceof NodeExpr)
+			for (NodeExpr e=(NodeExpr)n; e!=null; e=e.getExpr()) {
+				if (e!=n && e.pos!=0)
+					e.pos+=delta;
+				shift(e.getAddop(),delta);
+				shift(e.getTerm(),delta);
+			}
+		else if (n instanceof NodeTerm)
+			for (NodeTerm t=(NodeTerm)n; t!=null; t=t.getTerm()) {
+				if (t!=n && t.pos!=0)
+					t.pos+=delta;
+				shift(t.getMulop(),delta);
+				shift(t.getFact(),delta);
+			}
+		else if (n instanceof NodeFactExpr)
+			shift(((NodeFactExpr)n).getExpr(),delta);
+		else if (n instanceof NodeFactUnary)
+			shift(((NodeFactUnary)n).getFact(),delta);
+	}
+
+	/**
+	 * Runs the programs, as Main does, and writes the C, if "Code" is set.
+	 */
+	private void run() {
+		Environment env=new Environment(new ByteArrayInputStream(input),System.out);
+		StringBuilder code=new StringBuilder();
+		for (Program p: progs) {
+			if (p.error!=null) {
+				System.err.println(p.error);
+				continue;
+			}
+			try {
+				for (NodeStmt stmt: p.stmts)
+					stmt.eval(env);
+				for (String c: p.codes)
+					code.append(c);
+			} catch (Exception e) {
+				System.err.println(e);
+			}
+		}
+		System.out.flush();
+		new Code(code,env);
+	}
+
+	/**
+	 * Re-reads the programs whose files have changed, re-parses them,
+	 * and, if any has, re-runs them all.
+	 * @return false if no program changed.
+	 */
+	public boolean check() {
+		long t0=System.nanoTime();
+		int parsed=0;
+		int stmts=0;
+		long edited=0;
+		boolean changed=false;
+		for (Program p: progs) {
+			String text;
+			try {
+				FileTime modified=Files.getLastModifiedTime(p.path);
+				if (modified.equals(p.modified))
+					continue;
+				p.modified=modified;
+				edited=Math.max(edited,modified.toMillis());
+				text=new String(Files.readAllBytes(p.path),StandardCharsets.ISO_8859_1);
+			} catch (IOException e) {
+				continue; // e.g., being replaced; the next event will tell
+			}
+			if (text.equals(p.text))
+				continue;
+			changed=true;
+			parsed+=update(p,text);
+			stmts+=p.stmts.size();
+		}
+		if (!changed)
+			return false;
+		long t1=System.nanoTime();
+		run();
+		long t2=System.nanoTime();
+		System.err.printf("watch: re-parsed %d of %d statements in %.2f ms, ran in %.2f ms,"
+				+" %d ms from the edit to the result%n",
+			parsed,stmts,(t1-t0)/1e6,(t2-t1)/1e6,System.currentTimeMillis()-edited);
+		return true;
+	}
+
+	/**
+	 * The watch mode of Main: runs the programs, then runs them again
+	 * whenever one of their files changes, until killed.
+	 * @param args The names of the program files.
+	 * @throws IOException If stdin, or the files' directories, cannot be read.
+	 * @throws InterruptedException If interrupted while waiting for a change.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Watch watch=new Watch(args,System.in.readAllBytes());
+		WatchService ws=FileSystems.getDefault().newWatchService();
+		Set<Path> dirs=new HashSet<>();
+		for (Program p: watch.progs)
+			if (dirs.add(p.path.getParent()))
+				p.path.getParent().register(ws,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+		watch.check();
+		while (true) {
+			WatchKey key=ws.poll(1,TimeUnit.SECONDS); // or poll, if events are missed
+			if (key!=null) {
+				key.pollEvents();
+				key.reset();
+			}
+			watch.check();
+		}
+	}
+
+}